@@ -654,5 +654,102 @@ final class AST {
         }
     }
     
+    /**
+     * Copies a tree into one which matches the reverse of every string the
+     * original matches. Capture groups are stripped, since they have no
+     * use in a reversed match; dynamic boundaries do not reverse simply
+     * (<code>^</code> is not just <code>$</code> backwards) and are not
+     * supported.
+     * 
+     * @return the reversed tree, or <code>null</code> if <code>root</code>
+     * contains a dynamic boundary.
+     */
+    static Node reverse(Node root) {
+        final boolean[] dynamic = new boolean[1];
+        Node reversed = new CGStripper() {
+            @Override
+            protected void visit(Terminal node) {
+                if (node.cc.isDynamicBoundary()) dynamic[0] = true;
+                super.visit(node);
+            }
+            @Override
+            protected void visit(Cat node) {
+                Node second = kids.pop();
+                Node first = kids.pop();
+                push(new Cat(second, first));
+            }
+        }.copy(root);
+        return dynamic[0] ? null : reversed;
+    }
+    
+    /**
+     * @return the most chars a match of <code>root</code> may span, or -1 if
+     * there is no bound.
+     */
+    static int maxLength(Node root) {
+        final Stack<Integer> kids = new Stack<Integer>();
+        new Visitor(TraversalOrder.BOTTOM_UP) {
+            @Override
+            protected void visit(Terminal node) {
+                kids.push(node.cc.isSpecial() ? 0 : 1);
+            }
+            @Override
+            protected void visit(Cat node) {
+                int second = kids.pop();
+                int first = kids.pop();
+                kids.push(first < 0 || second < 0 ? -1 : first + second);
+            }
+            @Override
+            protected void visit(Alt node) {
+                int second = kids.pop();
+                int first = kids.pop();
+                kids.push(first < 0 || second < 0 ? -1 : Math.max(first, second));
+            }
+            @Override
+            protected void visit(Star node) {
+                kids.pop();
+                kids.push(-1);
+            }
+            @Override
+            protected void visit(Plus node) {
+                kids.pop();
+                kids.push(-1);
+            }
+            // Question and CG: the child's bound stands
+        }.visit(root);
+        assert kids.size() == 1;
+        return kids.pop();
+    }
+    
+    /**
+     * @return true if <code>root</code> contains a <code>\G</code>, so that
+     * where a match may begin depends on where the previous one ended.
+     */
+    static boolean anchorsAtMatch(Node root) {
+        final boolean[] anchors = new boolean[1];
+        new Visitor(TraversalOrder.TOP_DOWN) {
+            @Override
+            protected void visit(Terminal node) {
+                if (node.cc == CharClass.MATCH) anchors[0] = true;
+            }
+        }.visit(root);
+        return anchors[0];
+    }
+    
+    /**
+     * Copies a tree without its capture groups, as if it had been parsed 
+     * with {@link Pattern#X_STRIP_CG}.
+     */
+    static Node stripCaptureGroups(Node root) {
+        return new CGStripper().copy(root);
+    }
+    
+    private static class CGStripper extends CopyVisitor {
+        @Override
+        protected void visit(CG node) {
+            // the child is already on the stack
+        }
+    }
+    
     private AST() {}    // uninstantiable
 }
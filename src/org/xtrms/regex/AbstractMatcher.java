@@ -118,6 +118,12 @@ abstract class AbstractMatcher {
             Arrays.fill(a, -1);
         }
         
+        void shift(int offset) {
+            for (int i=0; i<length; ++i) {
+                if (a[i] != -1) a[i] += offset;
+            }
+        }
+        
         void clear(int group) {
             a[group << 1] = a[(group << 1) + 1] = -1;
         }
@@ -265,9 +271,9 @@ abstract class AbstractMatcher {
      * CCLT_UNICODE must not contain '\r' because of the test for BOL - 
      * @see #eval() where initStatus is set
      */
-    private static final CharClass CCLT_UNICODE =
+    static final CharClass CCLT_UNICODE =
             CharClass.LS_UNICODE.difference(CharClass.newSingleChar('\r'));
-    private static final CharClass CCLT_UNIX = CharClass.LS_UNIX;
+    static final CharClass CCLT_UNIX = CharClass.LS_UNIX;
     
     protected final List<Replacer> replacers = new ArrayList<Replacer>();
     private final StringBuilder rsb = new StringBuilder();
@@ -367,6 +373,12 @@ abstract class AbstractMatcher {
     protected int start = -1;
     protected int end = -1;
     protected int initStatus = CharClass.BOF_FLAG | CharClass.BOL_FLAG | CharClass.MATCH_FLAG;
+
+    /*
+     * where the eval() starts at the end of input, the initStatus as a
+     * word char following would have it; else 0.
+     */
+    int initStatusWithMore = 0;
     protected boolean match;
     
     protected int regionStart = 0;
@@ -428,6 +440,10 @@ abstract class AbstractMatcher {
     }
 
     private boolean afterAllButLastLS(int ci, int cj) {
+        return afterAllButLastLS(ci, cj, cclt, cr);
+    }
+
+    private static boolean afterAllButLastLS(int ci, int cj, CharClass cclt, int cr) {
         return (cj != EOF && (cclt.contains(ci) || (ci == cr && cj != '\n')));
     }
     /**
@@ -524,24 +540,64 @@ abstract class AbstractMatcher {
     private boolean loop;
     
     protected final void evalProlog(boolean loop) {
+        evalProlog(loop, start);
+    }
+    
+    /**
+     * Prepares an eval() which reads from <code>from</code> rather than from
+     * <code>start</code>; the Engine's offsets are then relative to 
+     * <code>from</code>.
+     */
+    final void evalProlog(boolean loop, int from) {
+        
+        assert start <= from;
         
         this.loop = loop;
         
-        i = start;
+        i = from;
+        
+        initStatus = initStatus(from == regionStart, matchEnd == from,
+            currChar(0), currChar(1), cclt, cr, loop);
+        /*
+         * the flags which look at the next char see EOF: more input might
+         * set them otherwise.
+         */
+        if (currChar(1) == EOF) {
+            int c0 = currChar(0);
+            initStatusWithMore = initStatus
+                & ~(CharClass.WORD_B_FLAG | CharClass.WORD_NB_FLAG);
+            if (cclt.contains(c0) || c0 == cr) {
+                initStatusWithMore |= CharClass.BOL_FLAG;
+            }
+            initStatusWithMore |= CC_WORD.contains(c0)
+                ? CharClass.WORD_NB_FLAG : CharClass.WORD_B_FLAG;
+        } else {
+            initStatusWithMore = 0;
+        }
         
-        initStatus = Integer.MIN_VALUE;
-        if (start == regionStart) {
+        cga.clear(0);
+        hitEnd = requireEnd = false;
+    }
+    
+    /**
+     * The flags an eval() starts with, between the chars <code>c0</code>
+     * and <code>c1</code> - as evalProlog() sets them, and as a
+     * {@link PushMatcher}, which runs its scans without a Matcher, does.
+     */
+    static int initStatus(boolean atStart, boolean atMatchEnd, int c0, int c1,
+            CharClass cclt, int cr, boolean loop) {
+        int initStatus = Integer.MIN_VALUE;
+        if (atStart) {
             initStatus |= CharClass.BOF_FLAG;
         }
-        if (matchEnd == start) {
+        if (atMatchEnd) {
             initStatus |= CharClass.MATCH_FLAG;
         }
         // atBofOrAfterLsInit
-        if (start == regionStart 
-                || afterAllButLastLS(currChar(0), currChar(1))) {
+        if (atStart || afterAllButLastLS(c0, c1, cclt, cr)) {
             initStatus |= CharClass.BOL_FLAG;
         }
-        if (CC_WORD.contains(currChar(0)) ^ CC_WORD.contains(currChar(1))) {
+        if (CC_WORD.contains(c0) ^ CC_WORD.contains(c1)) {
             initStatus |= CharClass.WORD_B_FLAG;
         } else {
             initStatus |= CharClass.WORD_NB_FLAG;
@@ -549,11 +605,40 @@ abstract class AbstractMatcher {
         if (loop) {
             initStatus |= CharClass.LOOP_FLAG;
         }
-        
-        cga.clear(0);
-        hitEnd = requireEnd = false;
+        return initStatus;
     }
-    
+
+    /**
+     * Moves <code>start</code> ahead to where the Pattern's prefix next
+     * occurs - no match can begin before - or, if it does not occur, to
+     * where it could still begin with more input; so that hitEnd and
+     * requireEnd come out as they would have from the old start.
+     */
+    protected final void skipToPrefix() {
+        Literal prefix = pattern.prefix;
+        if (prefix == null) return;
+        int at = prefix.indexIn(csq, start, regionEnd);
+        if (at < 0) at = Math.max(start, regionEnd - prefix.length() + 1);
+        start = end = at;
+    }
+
+    /**
+     * Runs <code>engine</code>. An eval() at the end of input hits the end
+     * if a following char might set the start flags so as to change
+     * whether a match can start there at all: one its anchors stopped
+     * before it read a char might start, and one it found might not. The
+     * flags are the Pattern's, so every Engine reports this alike.
+     */
+    final void eval(Engine engine) {
+        engine.eval(this);
+        if (initStatusWithMore != 0 && !hitEnd) {
+            boolean starts = pattern.startsOn(initStatus);
+            hitEnd = starts != pattern.startsOn(initStatusWithMore)
+                || starts != pattern.startsOn(initStatusWithMore
+                    ^ (CharClass.WORD_B_FLAG | CharClass.WORD_NB_FLAG));
+        }
+    }
+
     protected final void evalEpilog() {
         
         match = cga.match(0);
@@ -569,14 +654,27 @@ abstract class AbstractMatcher {
     }
     protected boolean engineHasFindLoop;
 
+    /**
+     * Switches to the Pattern's short input Engine if an input of
+     * <code>length</code> chars fits it, or else back to its Engine.
+     */
+    protected final void selectEngine(int length) {
+        BacktrackEngine sie = pattern.shortInputEngine;
+        Engine e = sie != null && sie.fits(length) ? sie : pattern.engine;
+        if (e != engine) {
+            engine = e;
+            engineHasFindLoop = e.hasFindLoop();
+            mls = null;
+        }
+    }
+
     private void doUsePattern(Pattern pattern) {
         if (pattern == null) {
             throw new IllegalArgumentException();
         }
         this.pattern = pattern; 
         engine = pattern.engine;
-        engineHasFindLoop = 
-            engine.style.capabilities().contains(Pattern.Feature.FIND_LOOP);
+        engineHasFindLoop = engine.hasFindLoop();
         mls = null;
         if ((pattern.flags & Pattern.UNIX_LINES) != 0) {
             cclt = CCLT_UNIX;
@@ -663,8 +761,72 @@ abstract class AbstractMatcher {
         if (!cga.match(group)) {
             return null;
         } else {
-            return csq.subSequence(start(group), end(group)).toString();
+            return csq.subSequence(start + cga.start(group), start + cga.end(group)).toString();
+        }
+    }
+    
+    /*
+     * reused by every match, for the methods below which make no garbage.
+     */
+    private int[] offsets = new int[0];
+    private GroupView[] views = new GroupView[0];
+    
+    /**
+     * As {@link #group(int)}, without the copy: a view of the chars of the
+     * group in the input, or <code>null</code> if the group did not
+     * participate in the match. The same view is returned for a group each
+     * time, and shows the group of the current match - only until the
+     * next.
+     */
+    public final CharSequence groupView(int group) {
+        checkMatch();
+        if (!cga.match(group)) return null;
+        if (views.length != cga.ngroups) {
+            views = new GroupView[cga.ngroups];
+            for (int i = 0; i < views.length; ++i) views[i] = new GroupView(i);
+        }
+        return views[group];
+    }
+    
+    private final class GroupView implements CharSequence {
+        private final int group;
+        private GroupView(int group) {
+            this.group = group;
+        }
+        public int length() {
+            return cga.end(group) - cga.start(group);
+        }
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return csq.charAt(start + cga.start(group) + index);
+        }
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException(
+                    "start " + start + ", end " + end + ", length " + length());
+            }
+            int from = AbstractMatcher.this.start + cga.start(group);
+            return csq.subSequence(from + start, from + end);
+        }
+        @Override
+        public String toString() {
+            int from = start + cga.start(group);
+            return csq.subSequence(from, from + length()).toString();
+        }
+    }
+    
+    /*
+     * passes the current match to v, its offsets into csq in an array
+     * reused from match to match.
+     */
+    final boolean visit(MatchVisitor v) {
+        if (offsets.length != cga.length) offsets = new int[cga.length];
+        for (int i = 0; i < offsets.length; ++i) {
+            offsets[i] = cga.a[i] == -1 ? -1 : start + cga.a[i];
         }
+        return v.visit(csq, offsets[0], offsets[1], offsets);
     }
     
     private int indexOfName(String name) {
@@ -0,0 +1,255 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Pattern.Feature.FIND_LOOP;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Stack;
+
+import org.xtrms.regex.AST.Alt;
+import org.xtrms.regex.AST.Cat;
+import org.xtrms.regex.AST.Node;
+import org.xtrms.regex.AST.Terminal;
+
+/**
+ * Aho-Corasick automaton, for patterns which are alternations of literals
+ * (<code>foo|bar|baz</code>), case-insensitive ones included: no NFA
+ * simulation and no subset construction, so both building the automaton
+ * and running it are linear, in the size of the dictionary and of the input
+ * respectively.
+ * <p>
+ * A literal is a sequence of {@link Alphabet} classes, so a position may be
+ * any of the chars of its class - <code>[Ff]</code> under
+ * {@link Pattern#CASE_INSENSITIVE}. The trie of the literals is completed
+ * by its failure links into a flat transition table, indexed as that of the
+ * {@link DFAtableEngine}.
+ * <p>
+ * The find loop is native: each state knows the longest literal which ends
+ * there - the one which starts the earliest - and the scan goes on until no
+ * literal starting by the best one so far could still win, by starting
+ * earlier, or at the same place with a higher priority (by default, the
+ * earlier alternative; with {@link Pattern#X_LEFTMOST_LONGEST}, the longer
+ * one).
+ */
+final class AhoCorasickEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        FIND_LOOP, LEFTMOST_FIRST);
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final Alphabet alphabet;
+    private final boolean longest;
+    private final int nLiterals;
+
+    /*
+     * by state, the row of width alphabet.size(); state 0 is the root.
+     */
+    private final int[] table;
+    private final int width;
+    private final int nStates;
+
+    private final int[] depth;
+    private final int[] fail;
+
+    /*
+     * by state: the priority of the literal which ends exactly there, the
+     * state of the longest literal which ends there (itself or a suffix),
+     * and the best priority of the literals further down the trie; NONE
+     * where there are none.
+     */
+    private final int[] priority;
+    private final int[] output;
+    private final int[] below;
+
+    AhoCorasickEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        alphabet = nfa.alphabet();
+        longest = (nfa.pattern.flags & Pattern.X_LEFTMOST_LONGEST) != 0;
+        List<int[]> literals = literalsOf(nfa.root, alphabet);
+        if (literals == null) {
+            throw new EngineStyle.ConstructionException(
+                "not an alternation of literals");
+        }
+        nLiterals = literals.size();
+        width = alphabet.size();
+
+        int capacity = 1;
+        for (int[] literal : literals) capacity += literal.length;
+        int[] trie = new int[capacity * width];
+        int[] depth = new int[capacity];
+        int[] priority = new int[capacity];
+        int[] below = new int[capacity];
+        Arrays.fill(priority, NONE);
+        Arrays.fill(below, NONE);
+        int n = 1;
+        for (int p = 0; p < literals.size(); ++p) {
+            int s = 0;
+            for (int k : literals.get(p)) {
+                below[s] = Math.min(below[s], p);
+                int next = trie[s * width + k];
+                if (next == 0) {
+                    next = trie[s * width + k] = n++;
+                    depth[next] = depth[s] + 1;
+                }
+                s = next;
+            }
+            priority[s] = Math.min(priority[s], p);
+        }
+        nStates = n;
+        this.depth = Arrays.copyOf(depth, n);
+        this.priority = Arrays.copyOf(priority, n);
+        this.below = Arrays.copyOf(below, n);
+
+        /*
+         * breadth first, so that a state's failure is complete before its
+         * children need it: a missing transition is that of the failure.
+         */
+        table = Arrays.copyOf(trie, n * width);
+        fail = new int[n];
+        output = new int[n];
+        output[0] = -1;
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int k = 1; k < width; ++k) {
+            int child = trie[k];
+            if (child != 0) queue[tail++] = child;
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            output[s] = this.priority[s] != NONE ? s : output[fail[s]];
+            for (int k = 1; k < width; ++k) {
+                int child = trie[s * width + k];
+                int f = table[fail[s] * width + k];
+                if (child != 0) {
+                    fail[child] = f;
+                    queue[tail++] = child;
+                } else {
+                    table[s * width + k] = f;
+                }
+            }
+        }
+    }
+
+    /*
+     * the literals of an alternation, in order, each as its Alphabet
+     * classes; or null if root is not an alternation of literals. Iterative,
+     * since the alternations of interest are thousands deep.
+     */
+    private static List<int[]> literalsOf(Node root, Alphabet alphabet) {
+        List<int[]> literals = new ArrayList<int[]>();
+        Stack<Node> alts = new Stack<Node>();
+        alts.push(root);
+        while (!alts.isEmpty()) {
+            Node node = alts.pop();
+            if (node instanceof Alt) {
+                alts.push(((Alt) node).second);
+                alts.push(((Alt) node).first);
+                continue;
+            }
+            List<Integer> classes = new ArrayList<Integer>();
+            Stack<Node> cats = new Stack<Node>();
+            cats.push(node);
+            while (!cats.isEmpty()) {
+                Node n = cats.pop();
+                if (n instanceof Cat) {
+                    cats.push(((Cat) n).second);
+                    cats.push(((Cat) n).first);
+                } else if (n instanceof Terminal) {
+                    int k = classOf(((Terminal) n).cc, alphabet);
+                    if (k == 0) return null;
+                    classes.add(k);
+                } else {
+                    return null;
+                }
+            }
+            int[] literal = new int[classes.size()];
+            for (int j = 0; j < literal.length; ++j) literal[j] = classes.get(j);
+            literals.add(literal);
+        }
+        return literals;
+    }
+
+    /*
+     * the class which is exactly cc, or 0.
+     */
+    private static int classOf(CharClass cc, Alphabet alphabet) {
+        if (cc.isSpecial() || cc.nIntervals() == 0) return 0;
+        int k = alphabet.classOf(cc.interval(0).begin);
+        return k != 0 && alphabet.charClass(k).equals(cc) ? k : 0;
+    }
+
+    /*
+     * Without the loop flag, only the literals which start at the start:
+     * those of the states at the depth of the number of chars read.
+     */
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        final boolean loop = (m.initStatus & CharClass.LOOP_FLAG) != 0;
+        final int[] table = this.table;
+        final Alphabet alphabet = this.alphabet;
+        int s = 0;
+        int len = 0;
+        int bestStart = NONE;
+        int bestEnd = 0;
+        int bestPriority = NONE;
+        int c;
+
+        while (true) {
+            c = m.nextChar();
+            if (c == EOF) break;
+            ++len;
+            s = table[s * width + alphabet.classOf(c)];
+            if (!loop && depth[s] != len) break;
+            int o = loop ? output[s] : priority[s] != NONE ? s : -1;
+            if (o > 0) {
+                int start = len - depth[o];
+                if (start < bestStart || start == bestStart
+                        && (longest || priority[o] < bestPriority)) {
+                    bestStart = start;
+                    bestEnd = len;
+                    bestPriority = priority[o];
+                }
+            }
+            if (bestStart != NONE && settled(s, len, bestStart, bestPriority, loop)) {
+                break;
+            }
+        }
+        if (bestStart != NONE) {
+            m.cga.start(0, bestStart);
+            m.cga.end(0, bestEnd);
+        }
+        m.hitEnd = c == EOF;
+        m.requireEnd = false;
+    }
+
+    /*
+     * true if no literal still to end could beat the best: none below s or
+     * any of its failures, where they start by the best.
+     */
+    private boolean settled(int s, int len, int bestStart, int bestPriority,
+            boolean loop) {
+        for (; s != 0; s = loop ? fail[s] : 0) {
+            int start = len - depth[s];
+            if (start > bestStart) return true;
+            if (below[s] != NONE && (start < bestStart || longest
+                    || below[s] < bestPriority)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + nLiterals + " literals, "
+            + nStates + " states, " + (width - 1) + " classes)";
+    }
+}
@@ -0,0 +1,145 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The input symbols of an {@link NFA}, partitioned into equivalence classes:
+ * two symbols are in the same class if and only if every NFA State either
+ * contains both or neither. Automata built from the NFA can therefore be
+ * indexed by class rather than by symbol.
+ * <p>
+ * Class <code>0</code> is reserved for symbols which no NFA State contains;
+ * the remaining classes are numbered in {@link CharClass} order. The symbols
+ * handled are the chars, {@link Misc#EOF} and the init pseudo characters.
+ */
+final class Alphabet {
+
+    private static final int BLOCK_BITS = 8;
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+    private static final int INIT_MASK = CharClass.MAX_INIT_COMBOS - 1;
+
+    /**
+     * The classes, indexed by class number. Element 0 is <code>null</code>.
+     */
+    private final CharClass[] classes;
+
+    /*
+     * two level lookup table for the chars: identical blocks are shared.
+     */
+    private final int[] index = new int[CharClass.CHAR_END >>> BLOCK_BITS];
+    private final char[] blocks;
+
+    private final int eofClass;
+    private final int[] initClasses = new int[CharClass.MAX_INIT_COMBOS];
+
+    Alphabet(NFA nfa) {
+        this(Collections.singletonList(nfa));
+    }
+
+    /**
+     * The Alphabet of several NFAs at once, as if they were one: each class
+     * lies within or outside the CharClass of every State of every NFA.
+     */
+    Alphabet(List<NFA> nfas) {
+
+        SortedSet<CharClass> sigma = new TreeSet<CharClass>();
+        for (NFA nfa : nfas) {
+            for (NFA.State state : nfa.states()) sigma.add(state.cc);
+        }
+        sigma = CharClass.partition(sigma);
+
+        classes = new CharClass[sigma.size() + 1];
+        assert classes.length <= Character.MAX_VALUE;
+        int k = 0;
+        for (CharClass cc : sigma) classes[++k] = cc;
+
+        char[] flat = new char[CharClass.CHAR_END];
+        for (k = 1; k < classes.length; ++k) {
+            for (CharClass.Interval iv : classes[k].intervals()) {
+                int begin = Math.max(iv.begin, 0);
+                int end = Math.min(iv.end, CharClass.CHAR_END);
+                if (begin < end) Arrays.fill(flat, begin, end, (char) k);
+            }
+        }
+        /*
+         * share identical blocks; most of the BMP usually maps to a handful.
+         */
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        StringBuilder sb = new StringBuilder(flat.length);
+        for (int b = 0; b < index.length; ++b) {
+            String block = new String(flat, b << BLOCK_BITS, BLOCK_SIZE);
+            Integer offset = seen.get(block);
+            if (offset == null) {
+                seen.put(block, offset = sb.length());
+                sb.append(block);
+            }
+            index[b] = offset;
+        }
+        blocks = sb.toString().toCharArray();
+
+        eofClass = find(EOF);
+        for (int n = 0; n < initClasses.length; ++n) {
+            initClasses[n] = find(Integer.MIN_VALUE | n);
+        }
+    }
+
+    private int find(int c) {
+        for (int k = 1; k < classes.length; ++k) {
+            if (classes[k].contains(c)) return k;
+        }
+        return 0;
+    }
+
+    /**
+     * @param c a char, {@link Misc#EOF} or an init pseudo character.
+     * @return the number of the class containing <code>c</code>.
+     */
+    int classOf(int c) {
+        if (c >= 0) {
+            return blocks[index[c >>> BLOCK_BITS] + (c & BLOCK_MASK)];
+        }
+        assert c == EOF || (c & ~INIT_MASK) == Integer.MIN_VALUE : c;
+        return c == EOF ? eofClass : initClasses[c & INIT_MASK];
+    }
+
+    /**
+     * @return the number of classes, including class 0.
+     */
+    int size() {
+        return classes.length;
+    }
+
+    /**
+     * @param k a class number other than 0.
+     * @return the class.
+     */
+    CharClass charClass(int k) {
+        assert k != 0;
+        return classes[k];
+    }
+
+    /**
+     * @param k a class number other than 0.
+     * @return a symbol belonging to the class.
+     */
+    int representative(int k) {
+        return classes[k].interval(0).begin;
+    }
+
+    @Override
+    public String toString() {
+        return "alphabet: " + (classes.length - 1) + " classes, "
+            + (blocks.length >>> BLOCK_BITS) + " blocks";
+    }
+}
@@ -0,0 +1,344 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+import static org.xtrms.regex.Pattern.Feature.CAPTURING_GROUPS;
+import static org.xtrms.regex.Pattern.Feature.DYNAMIC_BOUNDARIES;
+import static org.xtrms.regex.Pattern.Feature.FIND_LOOP;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.xtrms.regex.AbstractMatcher.DBC;
+
+/**
+ * Backtracking engine: a depth first search of the NFA, following the arcs
+ * in priority order, so that the first path to reach <code>accept</code> is
+ * the match. A bitmap of the (NFA State, position) pairs already visited
+ * keeps the search linear: a pair is only ever visited again by a path of
+ * lower priority, which can only fail as the first did. The loop State is
+ * searched like any other, so the find loop comes for free.
+ * <p>
+ * There is no setup per eval() beyond clearing the part of the bitmap used
+ * last time, which makes this the cheapest way to capture groups from a
+ * short input. The bitmap grows with the input, though, so
+ * {@link EngineStyle#DYNAMIC} only uses this engine for inputs which
+ * {@linkplain #fits(int) fit} {@link #BIT_BUDGET}.
+ * <p>
+ * Leftmost-first only: leftmost-longest would have to search every path.
+ */
+final class BacktrackEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        CAPTURING_GROUPS, DYNAMIC_BOUNDARIES, RELUCTANT_QUANTIFIERS,
+        FIND_LOOP, LOOP_DBC, LEFTMOST_FIRST);
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+
+    /**
+     * The system property which sets {@link #BIT_BUDGET}.
+     */
+    static final String BIT_BUDGET_PROPERTY = "org.xtrms.regex.backtrackBitBudget";
+
+    /**
+     * The most bits of visited bitmap - NFA States times positions - for
+     * which {@link EngineStyle#DYNAMIC} picks this engine: 256K, unless
+     * the system property {@link #BIT_BUDGET_PROPERTY} says otherwise when
+     * the class is loaded.
+     * <p>
+     * {@link #BIT_BUDGET} is not <code>private</code> or <code>final</code>
+     * in order to facilitate testing.
+     */
+    static int BIT_BUDGET = bitBudget(System.getProperty(BIT_BUDGET_PROPERTY));
+
+    /*
+     * the budget a value of the property sets; a bad one is ignored.
+     */
+    static int bitBudget(String value) {
+        if (value != null) {
+            try {
+                int budget = Integer.parseInt(value.trim());
+                if (budget >= 0) return budget;
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+            logger.warning("ignored " + BIT_BUDGET_PROPERTY + "=" + value);
+        }
+        return 256 * 1024;
+    }
+
+    private static final DBC[] NO_DBCS = new DBC[0];
+
+    private final int tncg;
+    private final int nstates;
+    private final Alphabet alphabet;
+    private final int[] alpha;
+    private final int omega;
+    private final int accept;
+
+    /*
+     * by State, by symbol class: true if the State's char class contains it.
+     */
+    private final boolean[][] reads;
+
+    /*
+     * by State, by arc: the next State, the tags set, and the dynamic
+     * boundary checks of the arc.
+     */
+    private final int[][] ns;
+    private final int[][][] tags;
+    private final DBC[][][] dbcs;
+
+    BacktrackEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        if (isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST)) {
+            throw new EngineStyle.ConstructionException(
+                "leftmost-longest not supported: " + nfa.pattern);
+        }
+        tncg = nfa.tncg;
+        Map<NFA.State, Integer> s2i = new HashMap<NFA.State, Integer>();
+        for (NFA.State s : nfa.states()) s2i.put(s, s2i.size());
+        nstates = s2i.size();
+        alphabet = nfa.alphabet();
+        reads = new boolean[nstates][alphabet.size()];
+        ns = new int[nstates][];
+        tags = new int[nstates][][];
+        dbcs = new DBC[nstates][][];
+        for (Map.Entry<NFA.State, Integer> e : s2i.entrySet()) {
+            NFA.State s = e.getKey();
+            int i = e.getValue();
+            for (int k = 1; k < alphabet.size(); ++k) {
+                reads[i][k] = s.cc.contains(alphabet.representative(k));
+            }
+            ns[i] = new int[s.size()];
+            tags[i] = new int[s.size()][];
+            dbcs[i] = new DBC[s.size()][];
+            int j = 0;
+            for (NFA.Arc arc : s.arcs()) {
+                ns[i][j] = s2i.get(arc.ns);
+                tags[i][j] = tagsOf(arc);
+                dbcs[i][j] = arc.dbcs.toArray(NO_DBCS);
+                ++j;
+            }
+        }
+        alpha = new int[nfa.alpha.size()];
+        int k = 0;
+        for (NFA.State s : nfa.alpha) alpha[k++] = s2i.get(s);
+        omega = indexOf(s2i, nfa.omega);
+        accept = indexOf(s2i, nfa.accept);
+    }
+
+    /*
+     * omega and accept are unreachable if the pattern can't match.
+     */
+    private static int indexOf(Map<NFA.State, Integer> s2i, NFA.State state) {
+        Integer i = s2i.get(state);
+        return i != null ? i : -1;
+    }
+
+    private static int[] tagsOf(NFA.Arc arc) {
+        int n = 0;
+        for (boolean tag : arc.tags) if (tag) ++n;
+        int[] tags = new int[n];
+        n = 0;
+        for (int t = 0; t < arc.tags.length; ++t) if (arc.tags[t]) tags[n++] = t;
+        return tags;
+    }
+
+    /**
+     * @return true if an input of <code>length</code> chars keeps the
+     * visited bitmap within {@link #BIT_BUDGET}.
+     */
+    boolean fits(int length) {
+        return (long) nstates * (length + 2) <= BIT_BUDGET;
+    }
+
+    /*
+     * the search of a Matcher: the classes of the chars read so far, the
+     * position of EOF once read, the visited bitmap,
+     * the capture groups of the current path, and the stack.
+     *
+     * The stack holds triples: (State, position, arc) to go on with the arcs
+     * of a State from the given one, or (~tag, value, unused) to restore a
+     * tag on the way back.
+     */
+    private final class MLS {
+
+        int[] classes = new int[16];
+        int nread;
+        int eof;
+        long[] visited = new long[16];
+        int used;
+        final int[] cg = new int[2 * tncg];
+        int[] stack = new int[3 * 16];
+        int sp;
+
+        void clear() {
+            nread = 0;
+            eof = -1;
+            Arrays.fill(visited, 0, used, 0L);
+            used = 0;
+            Arrays.fill(cg, -1);
+            sp = 0;
+        }
+
+        /*
+         * the class of the char read at position q, as the NFAtableEngine's
+         * len; read as the search first gets there.
+         */
+        int classAt(AbstractMatcher m, int q) {
+            if (q == 0) return alphabet.classOf(m.initStatus);
+            while (nread < q) {
+                if (nread == classes.length) {
+                    int[] newclasses = new int[classes.length * 2];
+                    System.arraycopy(classes, 0, newclasses, 0, classes.length);
+                    classes = newclasses;
+                }
+                m.i = m.start + nread;
+                int c = m.nextChar();
+                classes[nread++] = alphabet.classOf(c);
+                if (c == EOF && eof == -1) eof = nread;
+            }
+            return classes[q - 1];
+        }
+
+        /*
+         * marks (s, q) visited; returns false if it already was.
+         */
+        boolean visit(int s, int q) {
+            long bit = (long) q * nstates + s;
+            int w = (int) (bit >>> 6);
+            if (w >= visited.length) {
+                long[] newvisited = new long[Math.max(w + 1, visited.length * 2)];
+                System.arraycopy(visited, 0, newvisited, 0, visited.length);
+                visited = newvisited;
+            }
+            if (w >= used) used = w + 1;
+            long mask = 1L << bit;
+            if ((visited[w] & mask) != 0) return false;
+            visited[w] |= mask;
+            return true;
+        }
+
+        boolean visited(int s, int q) {
+            long bit = (long) q * nstates + s;
+            int w = (int) (bit >>> 6);
+            return w < used && (visited[w] & 1L << bit) != 0;
+        }
+
+        void push(int a, int b, int c) {
+            if (sp == stack.length) {
+                int[] newstack = new int[stack.length * 2];
+                System.arraycopy(stack, 0, newstack, 0, stack.length);
+                stack = newstack;
+            }
+            stack[sp++] = a;
+            stack[sp++] = b;
+            stack[sp++] = c;
+        }
+    }
+
+    /*
+     * hitEnd and requireEnd are those of the NFAtableEngine, which takes
+     * them from its strands at the position of EOF: here, the pairs reached
+     * at that position, up to the match. Except that a match found on
+     * reading EOF comes after the strands at EOF with lower priority are
+     * reached, so the search goes on for those, as long as they matter -
+     * the pairs at the position of EOF itself, and not beyond: the
+     * NFAtableEngine has all of those on its list before it reads EOF.
+     */
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        final MLS mls = m.mls != null ? (MLS) m.mls : (MLS) (m.mls = new MLS());
+        mls.clear();
+        final int[] cg = mls.cg;
+
+        boolean atEof = false;
+        int leadStart = -1;
+        int eofPos = -1;
+        boolean stranded = false;
+        boolean containsOmega = false;
+        boolean collecting = false;
+
+        for (int k = alpha.length - 1; k >= 0; --k) {
+            int a = alpha[k];
+            if (ns[a].length > 0 && reads[a][mls.classAt(m, 0)]) {
+                mls.push(a, 0, 0);
+            }
+        }
+
+        search:
+        while (mls.sp > 0) {
+            mls.sp -= 3;
+            final int s = mls.stack[mls.sp];
+            final int p = mls.stack[mls.sp + 1];
+            final int j = mls.stack[mls.sp + 2];
+            if (s < 0) {
+                cg[~s] = p;
+                continue;
+            }
+            if (j + 1 < ns[s].length) {
+                mls.stack[mls.sp + 2] = j + 1;
+                mls.sp += 3;
+            }
+            final int n = ns[s][j];
+            final int q = p + 1;
+            if (collecting && q > eofPos) continue;
+            if (mls.visited(n, q)) continue;
+            for (int t : tags[s][j]) {
+                mls.push(~t, cg[t], 0);
+                cg[t] = p;
+            }
+            if (n == accept) {
+                if (collecting) break;
+                System.arraycopy(cg, 0, m.cga.a, 0, cg.length);
+                if (p != eofPos || stranded && containsOmega) break;
+                collecting = true;
+                continue;
+            }
+            final int k = mls.classAt(m, q);
+            if (q == mls.eof) {
+                if (!atEof) {
+                    atEof = true;
+                    leadStart = cg[0];
+                    eofPos = q;
+                }
+                if (cg[0] != leadStart) {
+                    if (collecting) break;
+                } else {
+                    if (n != omega) stranded = true;
+                    else containsOmega = true;
+                    if (collecting && stranded && containsOmega) break;
+                }
+            }
+            final DBC[] d = dbcs[s][j];
+            if (d.length > 0) {
+                m.i = m.start + q;
+                for (DBC dbc : d) if (!dbc.check(m)) continue search;
+            }
+            mls.visit(n, q);
+            if (ns[n].length > 0 && reads[n][k]) mls.push(n, q, 0);
+        }
+        m.i = m.start + mls.nread;
+        m.hitEnd = atEof
+                && stranded;
+        m.requireEnd = atEof
+                && m.cga.match(0)
+                && m.cga.end(0) == eofPos - 1
+                && !containsOmega;
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + nstates + " states)";
+    }
+}
@@ -0,0 +1,219 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Bit-parallel simulation of the NFA, for leftmost-longest patterns of at
+ * most 64 States: a set of NFA States is a <code>long</code>, and a step
+ * is a mask by the States which contain the symbol, followed by a lookup of
+ * the States they lead to, a byte of the set at a time.
+ * <p>
+ * There is nothing to construct beyond the tables, so no DFA state
+ * explosion. The find loop is kept as by the {@link DFA}: the strands are
+ * grouped by where they started, earliest first, a group per set, and the
+ * match starts where the group which reached <code>accept</code> did.
+ */
+final class BitParallelEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        LOOP_DBC, RELUCTANT_QUANTIFIERS);
+
+    static final int MAX_STATES = Long.SIZE;
+
+    private final Alphabet alphabet;
+    private final boolean findLoop;
+
+    /*
+     * by symbol class: the States which contain the symbol.
+     */
+    private final long[] reach;
+
+    /*
+     * by byte of the set: the States the States in the byte lead to.
+     */
+    private final long[][] follow;
+
+    private final long alpha;
+    private final long omega;
+    private final long accept;
+
+    /*
+     * the States which lead to the loop State, and the States the loop
+     * State leads to, other than itself.
+     */
+    private final long toLoop;
+    private final long fromLoop;
+    private final boolean[] loopReaches;
+
+    /*
+     * the strand groups of a Matcher: the current ones and the next ones.
+     */
+    private static final class Groups {
+        long[] curr = new long[MAX_STATES + 1];
+        int[] currStart = new int[MAX_STATES + 1];
+        long[] next = new long[MAX_STATES + 1];
+        int[] nextStart = new int[MAX_STATES + 1];
+    }
+
+    BitParallelEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        Map<NFA.State, Integer> bit = new IdentityHashMap<NFA.State, Integer>();
+        for (NFA.State state : nfa.states()) {
+            if (state == nfa.loop) continue;
+            if (bit.size() == MAX_STATES) {
+                throw new EngineStyle.ConstructionException(
+                    "more than " + MAX_STATES + " NFA States");
+            }
+            bit.put(state, bit.size());
+        }
+        alphabet = nfa.alphabet();
+        findLoop = DFA.findLoopApplies(nfa);
+
+        reach = new long[alphabet.size()];
+        loopReaches = new boolean[alphabet.size()];
+        for (int k = 1; k < reach.length; ++k) {
+            int c = alphabet.representative(k);
+            for (Map.Entry<NFA.State, Integer> e : bit.entrySet()) {
+                if (e.getKey().cc.contains(c)) reach[k] |= 1L << e.getValue();
+            }
+            loopReaches[k] = nfa.loop.cc.contains(c);
+        }
+        long alpha = 0;
+        for (NFA.State state : nfa.alpha) alpha |= maskOf(bit, state);
+        this.alpha = alpha;
+        omega = maskOf(bit, nfa.omega);
+        accept = maskOf(bit, nfa.accept);
+
+        follow = new long[(bit.size() + 7) >>> 3][256];
+        long toLoop = 0;
+        for (Map.Entry<NFA.State, Integer> e : bit.entrySet()) {
+            int b = e.getValue();
+            long ns = 0;
+            for (NFA.Arc arc : e.getKey().arcs()) {
+                assert arc.dbcs().isEmpty();
+                if (arc.ns == nfa.loop) toLoop |= 1L << b;
+                else ns |= maskOf(bit, arc.ns);
+            }
+            long[] table = follow[b >>> 3];
+            for (int i = 0; i < 256; ++i) {
+                if ((i & 1 << (b & 7)) != 0) table[i] |= ns;
+            }
+        }
+        this.toLoop = toLoop;
+        long fromLoop = 0;
+        for (NFA.Arc arc : nfa.loop.arcs()) {
+            if (arc.ns != nfa.loop) fromLoop |= maskOf(bit, arc.ns);
+        }
+        this.fromLoop = fromLoop;
+    }
+
+    /*
+     * omega and accept are unreachable if the pattern can't match.
+     */
+    private static long maskOf(Map<NFA.State, Integer> bit, NFA.State state) {
+        Integer b = bit.get(state);
+        return b != null ? 1L << b : 0;
+    }
+
+    private long follow(long states) {
+        long ns = 0;
+        for (int b = 0; states != 0; states >>>= 8, ++b) {
+            ns |= follow[b][(int) states & 0xff];
+        }
+        return ns;
+    }
+
+    /*
+     * As DFA.stateListFrom(), on sets: each group is followed in turn, less
+     * the States an earlier group has reached; accept cuts off the later
+     * groups, and the loop State, which is always last, starts a new group.
+     */
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        final Groups groups = m.mls != null ? (Groups) m.mls
+                : (Groups) (m.mls = new Groups());
+        long[] curr = groups.curr;
+        int[] currStart = groups.currStart;
+        long[] next = groups.next;
+        int[] nextStart = groups.nextStart;
+        int ncurr = 1;
+        curr[0] = alpha;
+        currStart[0] = 0;
+        boolean loop = false;
+        int c = m.initStatus;
+        int len = 0;
+
+        while (true) {
+            final int k = alphabet.classOf(c);
+            final long r = reach[k];
+            long seen = 0;
+            boolean accepted = false;
+            boolean nextLoop = false;
+            int nnext = 0;
+            for (int g = 0; g < ncurr && !accepted; ++g) {
+                long states = curr[g] & r;
+                if ((states & toLoop) != 0) nextLoop = findLoop;
+                states = follow(states) & ~seen;
+                if (states == 0) continue;
+                seen |= states;
+                if ((states & accept) != 0) {
+                    accepted = true;
+                    m.cga.start(0, currStart[g]);
+                    m.cga.end(0, len - 1);
+                }
+                next[nnext] = states;
+                nextStart[nnext++] = currStart[g];
+            }
+            if (loop && !accepted && loopReaches[k]) {
+                long states = fromLoop & ~seen;
+                if (states != 0) {
+                    next[nnext] = states;
+                    nextStart[nnext++] = len;
+                }
+                nextLoop = true;
+            }
+            nextLoop &= !accepted;
+            if (nnext == 0 && !nextLoop
+                    || nnext == 1 && next[0] == accept && !nextLoop) {
+                break;
+            }
+            long[] swap = curr;
+            curr = next;
+            next = swap;
+            int[] swapStart = currStart;
+            currStart = nextStart;
+            nextStart = swapStart;
+            ncurr = nnext;
+            loop = nextLoop;
+            c = m.nextChar();
+            ++len;
+        }
+        /*
+         * the leading group: the loop, if there's nothing else.
+         */
+        long lead = ncurr > 0 ? curr[0] : 0;
+        boolean containsOmega = (lead & omega) != 0;
+        m.hitEnd = c == EOF
+                && (ncurr == 0 && loop
+                    || Long.bitCount(lead) > (containsOmega
+                        ? (lead & accept) != 0 ? 2 : 1 : 0));
+        m.requireEnd = c == EOF
+                && m.cga.match(0)
+                && m.cga.end(0) == len - 1
+                && !containsOmega;
+    }
+
+    @Override
+    boolean hasFindLoop() {
+        return findLoop;
+    }
+}
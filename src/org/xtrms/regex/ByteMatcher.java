@@ -0,0 +1,330 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFAtableEngine.ACCEPT;
+import static org.xtrms.regex.DFAtableEngine.DEAD;
+import static org.xtrms.regex.DFAtableEngine.FLAG_BITS;
+import static org.xtrms.regex.DFAtableEngine.PURE_ACCEPT;
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.RegexParser.CC_WORD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link Matcher}-like class which operates on UTF-8 bytes - a
+ * <code>byte[]</code>, a {@link ByteBuffer} or a
+ * {@link ReadableByteChannel} - with no decoding: the {@link Pattern} must
+ * be compiled with {@link Pattern#X_UTF8}, and its automaton reads the bytes
+ * themselves. Offsets are byte offsets, from the start of the input. Note:
+ * the API for this class is new and subject to change.
+ * <p>
+ * Only group 0 is reported. Malformed UTF-8 matches nothing, not even
+ * <code>.</code>; a match never ends within a surrogate pair, which the
+ * char-based matchers allow.
+ */
+public final class ByteMatcher {
+
+    /**
+     * The initial byte buffer capacity, for a channel.
+     * <p>
+     * Not <code>private</code> or <code>final</code> in order to facilitate
+     * testing.
+     */
+    static int BYTE_BUFFER_CAPACITY_INIT = 4096;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Pattern pattern;
+    private final Utf8DFA dfa;
+    private final CharClass cclt;
+    private final int cr;
+
+    private final ReadableByteChannel ch;
+    private IOException iox = null;
+    private boolean eof;
+
+    /*
+     * the bytes read, from the input offset base on; those a code point
+     * before mark are no longer needed.
+     */
+    private ByteBuffer bb;
+    private long base = 0;
+    private long mark = 0;
+
+    /*
+     * where the next find() starts, or -1 once the input is exhausted.
+     */
+    private long from = 0;
+    private boolean found = false;
+    private long matchStart;
+    private long matchEnd = 0;
+
+    public ByteMatcher(byte[] bytes, Pattern p) {
+        this(ByteBuffer.wrap(bytes), p);
+    }
+
+    /**
+     * Matches the bytes remaining in <code>bb</code>; its position is offset
+     * 0.
+     */
+    public ByteMatcher(ByteBuffer bb, Pattern p) {
+        this(p, null, bb.slice());
+    }
+
+    public ByteMatcher(ReadableByteChannel ch, Pattern p) {
+        this(p, ch, ByteBuffer.allocate(BYTE_BUFFER_CAPACITY_INIT).flip());
+    }
+
+    private ByteMatcher(Pattern p, ReadableByteChannel ch, ByteBuffer bb) {
+        if (p.utf8 == null) {
+            throw new IllegalArgumentException(
+                "Pattern not compiled with X_UTF8: " + p);
+        }
+        this.pattern = p;
+        this.dfa = p.utf8;
+        this.ch = ch;
+        this.eof = ch == null;
+        this.bb = bb;
+        if ((p.flags & Pattern.UNIX_LINES) != 0) {
+            cclt = AbstractMatcher.CCLT_UNIX;
+            cr = (char) -2;
+        } else {
+            cclt = AbstractMatcher.CCLT_UNICODE;
+            cr = '\r';
+        }
+    }
+
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    public IOException ioException() {
+        return iox;
+    }
+
+    /**
+     * @return true if a match is found from the end of the previous one on.
+     */
+    public boolean find() {
+        found = false;
+        final long at = from;
+        if (at < 0) return false;
+        if (dfa.findLoop) {
+            mark = at;
+            long end = scan(at, initStatus(at, true));
+            if (end >= 0) found(startOf(at, end), end);
+        } else {
+            for (long q = at; ; q = nextCodePoint(q)) {
+                mark = q;
+                long end = scan(q, initStatus(q, false));
+                if (end >= 0) {
+                    found(q, end);
+                    break;
+                }
+                if (byteAt(q) == EOF) break;
+            }
+        }
+        if (!found) from = -1;
+        return found;
+    }
+
+    private void found(long start, long end) {
+        found = true;
+        matchStart = mark = start;
+        matchEnd = end;
+        from = start < end ? end : byteAt(end) == EOF ? -1 : nextCodePoint(end);
+    }
+
+    /**
+     * @return the byte offset of the start of the match.
+     */
+    public long start() {
+        checkFound();
+        return matchStart;
+    }
+
+    /**
+     * @return the byte offset past the end of the match.
+     */
+    public long end() {
+        checkFound();
+        return matchEnd;
+    }
+
+    /**
+     * @return the match, decoded.
+     */
+    public String group() {
+        checkFound();
+        byte[] bytes = new byte[(int) (matchEnd - matchStart)];
+        for (int j = 0; j < bytes.length; ++j) {
+            bytes[j] = bb.get((int) (matchStart - base) + j);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private void checkFound() {
+        if (!found) {
+            throw new IllegalStateException("no match");
+        }
+    }
+
+    /*
+     * runs the DFA from at: the end of the match, or -1.
+     */
+    private long scan(long at, int initStatus) {
+        final int[] table = dfa.table;
+        int next = dfa.init(initStatus);
+        long p = at;
+        long cpStart = at;
+        long end = -1;
+        while (next != DEAD && (next & PURE_ACCEPT) == 0) {
+            if (dfa.atCodePoint(next)) {
+                cpStart = p;
+            }
+            int b = byteAt(p);
+            next = table[(next >>> FLAG_BITS) + (b == EOF ? Utf8DFA.EOF_COLUMN : b)];
+            if (next != DEAD && (next & ACCEPT) != 0) end = cpStart;
+            if (b == EOF) break;
+            ++p;
+        }
+        return end;
+    }
+
+    /*
+     * As the DFAtableEngine does without a ReverseDFA: the leftmost match
+     * starts at the first position from which the DFA, anchored, reaches
+     * accept at all.
+     */
+    private long startOf(long from, long end) {
+        for (long q = from; ; q = nextCodePoint(q)) {
+            assert q <= end;
+            if (accepts(q)) return q;
+        }
+    }
+
+    private boolean accepts(long at) {
+        final int[] table = dfa.table;
+        int next = dfa.init(Integer.MIN_VALUE);  // no init flags: no anchors to check
+        for (long p = at; next != DEAD; ++p) {
+            int b = byteAt(p);
+            next = table[(next >>> FLAG_BITS) + (b == EOF ? Utf8DFA.EOF_COLUMN : b)];
+            if (next != DEAD && (next & ACCEPT) != 0) return true;
+            if (b == EOF) break;
+        }
+        return false;
+    }
+
+    /*
+     * as evalProlog() computes it, from the code points around at.
+     */
+    private int initStatus(long at, boolean loop) {
+        int c0 = at == 0 ? '\n' : charBefore(at);
+        int c1 = charAt(at);
+        int initStatus = Integer.MIN_VALUE;
+        if (at == 0) {
+            initStatus |= CharClass.BOF_FLAG;
+        }
+        if (matchEnd == at) {
+            initStatus |= CharClass.MATCH_FLAG;
+        }
+        if (at == 0 || (c1 != EOF && (cclt.contains(c0) || (c0 == cr && c1 != '\n')))) {
+            initStatus |= CharClass.BOL_FLAG;
+        }
+        if (CC_WORD.contains(c0) ^ CC_WORD.contains(c1)) {
+            initStatus |= CharClass.WORD_B_FLAG;
+        } else {
+            initStatus |= CharClass.WORD_NB_FLAG;
+        }
+        if (loop) {
+            initStatus |= CharClass.LOOP_FLAG;
+        }
+        return initStatus;
+    }
+
+    /*
+     * the char the code point at p starts with - the high surrogate of a
+     * supplementary one - or EOF.
+     */
+    private int charAt(long p) {
+        int cp = codePointAt(p);
+        return cp == EOF ? EOF : Character.isSupplementaryCodePoint(cp)
+            ? Character.highSurrogate(cp) : cp;
+    }
+
+    /*
+     * the char the code point before p ends with.
+     */
+    private int charBefore(long p) {
+        long q = p - 1;
+        while (q > p - 4 && q > 0 && (byteAt(q) & 0xC0) == 0x80) --q;
+        int cp = codePointAt(q);
+        return Character.isSupplementaryCodePoint(cp)
+            ? Character.lowSurrogate(cp) : cp;
+    }
+
+    private int codePointAt(long p) {
+        int b = byteAt(p);
+        if (b < 0x80) return b;
+        if (b < 0xC0) return 0xFFFD;
+        int n = b < 0xE0 ? 1 : b < 0xF0 ? 2 : 3;
+        int cp = b & (0x3F >> n);
+        for (int j = 1; j <= n; ++j) {
+            int c = byteAt(p + j);
+            if ((c & 0xC0) != 0x80) return 0xFFFD;
+            cp = cp << 6 | c & 0x3F;
+        }
+        return cp <= Character.MAX_CODE_POINT ? cp : 0xFFFD;
+    }
+
+    private long nextCodePoint(long p) {
+        do ++p; while ((byteAt(p) & 0xC0) == 0x80);
+        return p;
+    }
+
+    /*
+     * the byte at input offset p, reading more input as needed; or EOF.
+     */
+    private int byteAt(long p) {
+        assert p >= base;
+        while (p - base >= bb.limit() && !eof) moreInput();
+        return p - base < bb.limit() ? bb.get((int) (p - base)) & 0xFF : EOF;
+    }
+
+    /*
+     * Drops the bytes no longer needed - but for those of the code point
+     * before mark, for the lookbehind of the anchors - and reads into the
+     * room made, or into a buffer twice the size.
+     */
+    private void moreInput() {
+        int drop = (int) Math.max(0, mark - 4 - base);
+        bb.position(drop);
+        if (bb.remaining() < bb.capacity()) {
+            bb.compact();
+        } else {
+            ByteBuffer grown = ByteBuffer.allocate(bb.capacity() * 2);
+            grown.put(bb);
+            bb = grown;
+        }
+        base += drop;
+        int n = 0;
+        try {
+            while ((n = ch.read(bb)) == 0);     // got something, or EOF
+        } catch (IOException e) {
+            iox = e;
+            n = -1;
+        }
+        if (n < 0) eof = true;
+        bb.flip();
+    }
+
+    @Override
+    public String toString() {
+        return "ByteMatcher: pattern=" + pattern + ", " + dfa
+            + (found ? ", match=[" + matchStart + ", " + matchEnd + ")" : "");
+    }
+}
@@ -117,6 +117,18 @@ final class CharClass implements Comparable<CharClass>, Serializable {
             }
         }
 
+        /**
+         * Joins an adjacent {@link Interval} to the current instance.
+         * 
+         * @param ci
+         *            the {@link Interval} which begins where this one ends.
+         * @return a new {@link Interval} spanning both.
+         */
+        Interval join(Interval ci) {
+            assert end == ci.begin : "arg must be adjacent";
+            return new Interval(begin, ci.end);
+        }
+
         public int compareTo(Interval ci) {
             int ret = 0;
             if (begin < ci.begin) {
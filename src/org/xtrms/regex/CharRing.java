@@ -0,0 +1,194 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.CharBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The input window of a {@link StreamMatcher}: a ring buffer of chars, its
+ * capacity a power of two. The chars consumed are dropped by moving the
+ * head on, and more are read into the room behind the tail, so that a
+ * refill costs nothing for the chars kept. The ring only grows, doubling,
+ * when it is full.
+ * <p>
+ * The arrays are pooled, by size: a ring takes one from the pool, and
+ * gives it back when it grows or is released, for the next to use. The
+ * pool holds them softly, and only a few of each size.
+ */
+final class CharRing implements CharSequence {
+
+    /*
+     * the arrays kept of each size, by log2 of the size.
+     */
+    private static final int POOL_MAX = 4;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<SoftReference<char[]>>[] pool =
+        new ConcurrentLinkedQueue[31];
+    static {
+        for (int i = 0; i < pool.length; ++i) {
+            pool[i] = new ConcurrentLinkedQueue<SoftReference<char[]>>();
+        }
+    }
+
+    private static char[] take(int capacity) {
+        SoftReference<char[]> ref;
+        while ((ref = pool[log2(capacity)].poll()) != null) {
+            char[] a = ref.get();
+            if (a != null) return a;
+        }
+        return new char[capacity];
+    }
+
+    private static void give(char[] a) {
+        ConcurrentLinkedQueue<SoftReference<char[]>> q = pool[log2(a.length)];
+        if (q.size() < POOL_MAX) q.offer(new SoftReference<char[]>(a));
+    }
+
+    private static int log2(int powerOfTwo) {
+        return Integer.numberOfTrailingZeros(powerOfTwo);
+    }
+
+    /**
+     * @return the power of two no less than <code>n</code>, which is
+     *         positive.
+     */
+    static int capacityFor(int n) {
+        if (n <= 0 || n > 1 << 30) {
+            throw new IllegalArgumentException("bad capacity: " + n);
+        }
+        return n == 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private char[] buf;
+    private int mask;
+    /*
+     * the index in buf of char 0, and the number of chars.
+     */
+    private int head = 0;
+    private int length = 0;
+    /*
+     * buf, as a Readable reads into it.
+     */
+    private CharBuffer view;
+
+    CharRing(int capacity) {
+        use(take(capacityFor(capacity)));
+    }
+
+    private void use(char[] a) {
+        buf = a;
+        mask = a.length - 1;
+        view = CharBuffer.wrap(a);
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * Drops the first <code>n</code> chars.
+     */
+    void drop(int n) {
+        assert 0 <= n && n <= length;
+        head = (head + n) & mask;
+        length -= n;
+    }
+
+    /**
+     * Reads from <code>r</code> into the room behind the tail, doubling the
+     * capacity first if there is none.
+     *
+     * @return the number of chars read, or -1 at the end of input.
+     * @throws IllegalStateException
+     *             if the ring is full and can grow no larger than
+     *             <code>limit</code>.
+     */
+    int fill(Readable r, int limit) throws IOException {
+        if (buf == null) {
+            throw new IllegalStateException("released");
+        }
+        if (length == buf.length) grow(limit);
+        if (length == 0) head = 0;
+        int tail = (head + length) & mask;
+        int room = tail < head ? head : buf.length;
+        view.limit(room).position(tail);
+        int n;
+        while ((n = r.read(view)) == 0);     // got something, or EOF
+        if (n > 0) length += n;
+        return n;
+    }
+
+    /**
+     * Appends the chars remaining in <code>src</code>, growing as needed.
+     *
+     * @throws IllegalStateException
+     *             if they do not fit within <code>limit</code>.
+     */
+    void put(CharBuffer src, int limit) {
+        if (buf == null) {
+            throw new IllegalStateException("released");
+        }
+        while (src.hasRemaining()) {
+            if (length == buf.length) grow(limit);
+            if (length == 0) head = 0;
+            int tail = (head + length) & mask;
+            int n = Math.min(src.remaining(), (tail < head ? head : buf.length) - tail);
+            src.get(buf, tail, n);
+            length += n;
+        }
+    }
+
+    private void grow(int limit) {
+        if (buf.length >= limit) {
+            throw new IllegalStateException("max char buffer size exceeded");
+        }
+        char[] a = take(buf.length << 1);
+        int firstPart = Math.min(length, buf.length - head);
+        System.arraycopy(buf, head, a, 0, firstPart);
+        System.arraycopy(buf, 0, a, firstPart, length - firstPart);
+        give(buf);
+        use(a);
+        head = 0;
+    }
+
+    /**
+     * Gives the array back to the pool: the ring is of no further use.
+     */
+    void release() {
+        if (buf != null) give(buf);
+        buf = null;
+        view = null;
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return buf[(head + index) & mask];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(start + ", " + end);
+        }
+        char[] chars = new char[end - start];
+        int from = (head + start) & mask;
+        int firstPart = Math.min(chars.length, buf.length - from);
+        System.arraycopy(buf, from, chars, 0, firstPart);
+        System.arraycopy(buf, 0, chars, firstPart, chars.length - firstPart);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
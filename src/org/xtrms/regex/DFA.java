@@ -7,19 +7,24 @@ package org.xtrms.regex;
 
 import static org.xtrms.regex.Misc.LS;
 import static org.xtrms.regex.Misc.clear;
+import static org.xtrms.regex.Misc.isSet;
 import static org.xtrms.regex.Misc.topologicalSort;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.SortedSet;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -73,9 +78,16 @@ final class DFA {
     }
     
     
+    /**
+     * A DFA State is identified by the <em>ordered</em> list of NFA States it
+     * represents. For leftmost-first DFAs the order is the priority order of
+     * the NFA strands, as kept by the <code>NFAtableEngine</code>; for
+     * leftmost-longest DFAs the list is kept sorted by position, so that it
+     * behaves as a set.
+     */
     static final class State implements Vertex<Arc> {
                 
-        private final Set<NFA.State> nfaStates;
+        private final List<NFA.State> nfaStates;
         /* private */ Arc[] arcs;   // quick and dirty protection scope easement for speed
         
         final boolean init;
@@ -83,15 +95,17 @@ final class DFA {
         final boolean stranded;
         final boolean accept;
         
-        public State(NFA nfa, Set<NFA.State> nfaStates) {
+        public State(NFA nfa, List<NFA.State> nfaStates) {
             
-            this.nfaStates = Collections.unmodifiableSet(
-                new LinkedHashSet<NFA.State>(nfaStates));
+            this.nfaStates = Collections.unmodifiableList(
+                new ArrayList<NFA.State>(nfaStates));
 
+            List<NFA.State> lead = leadingGroup(nfaStates);
             this.init = nfaStates.containsAll(nfa.alpha);
-            this.containsOmega = nfaStates.contains(nfa.omega);
+            this.containsOmega = lead.contains(nfa.omega);
             this.accept = nfaStates.contains(nfa.accept);
-            this.stranded = nfaStates.size() > (containsOmega ? accept ? 2 : 1 : 0);
+            this.stranded = lead.size() > 
+                (containsOmega ? lead.contains(nfa.accept) ? 2 : 1 : 0);
         }
         private void arcs(Arc[] arcs) {
             this.arcs = arcs;
@@ -104,10 +118,10 @@ final class DFA {
             return arcs.clone();
         }
         
-        boolean contains(Set<NFA.State> nfaStates) {
+        boolean contains(Collection<NFA.State> nfaStates) {
             return this.nfaStates.containsAll(nfaStates);
         }
-        boolean intersects(final Set<NFA.State> nfaStates) {
+        boolean intersects(final Collection<NFA.State> nfaStates) {
             Set<NFA.State> temp = new HashSet<NFA.State>(nfaStates);
             temp.removeAll(this.nfaStates);
             return !temp.isEmpty();
@@ -128,7 +142,8 @@ final class DFA {
             final int mark = sb.length();
             for (NFA.State state : nfaStates) {
                 sb.append(sb.length() == mark ? '{' : ',');
-                sb.append(state.position);
+                if (state != GROUP_SEPARATOR) sb.append(state.position);
+                else sb.append('|');
             }
             sb.append('}');
             return sb.toString();
@@ -165,19 +180,154 @@ final class DFA {
 
 
     private static final int MAX_STATE_COUNT = 10 * 1000;
+
+    /*
+     * an eager DFA is not expected to outgrow its NFA by more than this,
+     * nor a small one held to it.
+     */
+    private static final int MAX_GROWTH = 8;
+    private static final int MIN_STATE_COUNT = 256;
     
 
-    private Set<NFA.State> stateSetFrom(Iterable<NFA.Arc> arcs) {
-        Set<NFA.State> ret = new LinkedHashSet<NFA.State>();
-        for (NFA.Arc arc : arcs) {
-            assert arc.dbcs().isEmpty();
-            /*
-             * Vanilla DFA can't do loop state, which requires reluctant 
-             * quantifiers and true capture groups.
-             */
-            if (arc.ns != nfa.loop) ret.add(arc.ns);
+    private static final Comparator<NFA.State> BY_POSITION = 
+        new Comparator<NFA.State>() {
+            public int compare(NFA.State s1, NFA.State s2) {
+                return s1.position < s2.position ? -1 
+                        : s1.position == s2.position ? 0 : 1;
+            }
+        };
+    
+    /**
+     * Computes the NFA States reached from <code>from</code> on the symbol
+     * <code>c</code>. Since every <code>CharClass</code> of <code>from</code>
+     * either contains or is disjoint from each element of the partition of
+     * those classes, any representative symbol of a partition element will do.
+     * <p>
+     * When leftmost-first, the NFA States are visited in priority order and
+     * the first to reach a given State wins; reaching <code>accept</code>
+     * cuts off every lower priority strand, exactly as the 
+     * <code>NFAtableEngine</code> does. Otherwise the result is a set, kept
+     * sorted by position.
+     * <p>
+     * The <code>loop</code> State is only followed if <code>findLoop</code>
+     * is set. The strands are then grouped by where they started, earliest
+     * first, with a {@link #GROUP_SEPARATOR} between groups; the 
+     * <code>loop</code> itself is always the last group. Reaching
+     * <code>accept</code> cuts off every later group, whatever the semantics,
+     * and the leftmost-longest sets are sorted group by group.
+     */
+    static List<NFA.State> stateListFrom(NFA nfa, boolean leftmostFirst,
+            boolean findLoop, List<NFA.State> from, int c) {
+        Set<NFA.State> seen = new HashSet<NFA.State>();
+        List<NFA.State> list = new ArrayList<NFA.State>();
+        boolean accepted = false;
+        boolean loop = false;
+        next_state:
+        for (NFA.State nfaState : from) {
+            if (nfaState == GROUP_SEPARATOR) {
+                if (accepted) break;
+                separate(list);
+                continue;
+            }
+            if (!nfaState.cc.contains(c)) continue;
+            if (nfaState == nfa.loop) separate(list);
+            for (NFA.Arc arc : nfaState.arcs()) {
+                assert arc.dbcs().isEmpty();
+                /*
+                 * Vanilla DFA can't do loop state, which requires true 
+                 * capture groups to tell where the match started - unless
+                 * the Engine recovers the start by other means. Either way
+                 * it goes last, whatever order from is in.
+                 */
+                if (arc.ns == nfa.loop) {
+                    loop = findLoop;
+                    continue;
+                }
+                if (seen.add(arc.ns)) list.add(arc.ns);
+                if (arc.ns == nfa.accept) {
+                    accepted = true;
+                    if (leftmostFirst) break next_state;
+                }
+            }
+        }
+        if (loop && !accepted) {
+            separate(list);
+            list.add(nfa.loop);
+        }
+        if (!list.isEmpty() && list.get(list.size() - 1) == GROUP_SEPARATOR) {
+            list.remove(list.size() - 1);
+        }
+        if (!leftmostFirst) sortGroups(list);
+        return list;
+    }
+    
+    /**
+     * Separates the strand groups of a DFA State's list of NFA States. 
+     */
+    static final NFA.State GROUP_SEPARATOR = null;
+    
+    private static void separate(List<NFA.State> list) {
+        if (!list.isEmpty() && list.get(list.size() - 1) != GROUP_SEPARATOR) {
+            list.add(GROUP_SEPARATOR);
+        }
+    }
+    
+    private static void sortGroups(List<NFA.State> list) {
+        int begin = 0;
+        for (int i = 0; i <= list.size(); ++i) {
+            if (i == list.size() || list.get(i) == GROUP_SEPARATOR) {
+                Collections.sort(list.subList(begin, i), BY_POSITION);
+                begin = i + 1;
+            }
         }
-        return ret;
+    }
+    
+    /**
+     * @return the NFA States of the strands which started first - all of
+     * them, unless the list is grouped by the find loop. As in the
+     * <code>NFAtableEngine</code>, only these count towards 
+     * <code>hitEnd</code> and <code>requireEnd</code>.
+     */
+    static List<NFA.State> leadingGroup(List<NFA.State> nfaStates) {
+        int i = nfaStates.indexOf(GROUP_SEPARATOR);
+        return i < 0 ? nfaStates : nfaStates.subList(0, i);
+    }
+    
+    /**
+     * @return the NFA States of the initial DFA State, ordered as per
+     * {@link #stateListFrom(NFA, boolean, boolean, List, int)}.
+     */
+    static List<NFA.State> initStateList(NFA nfa, boolean leftmostFirst) {
+        List<NFA.State> alpha = new ArrayList<NFA.State>(nfa.alpha);
+        if (!leftmostFirst) Collections.sort(alpha, BY_POSITION);
+        return alpha;
+    }
+    
+    /**
+     * The find loop can only be folded into a DFA when the arcs out of the
+     * <code>loop</code> State are free of dynamic boundary checks.
+     * 
+     * @return true if a DFA of <code>nfa</code> may follow its 
+     * <code>loop</code> State.
+     */
+    static boolean findLoopApplies(NFA nfa) {
+        return !nfa.requirements.contains(Pattern.Feature.LOOP_DBC);
+    }
+    
+    /**
+     * The subset construction can blow up exponentially - as it does for
+     * <code>(a|b)*a(a|b){20}</code> - and one which has run to many times
+     * the size of its NFA is taken to be doing so: long before the
+     * absolute limit, so as not to spend on a table what is better left to
+     * the {@link DFAlazyEngine}, which only builds the States the input
+     * reaches.
+     * 
+     * @return the most States an eager DFA of <code>nfa</code> is built
+     * to.
+     */
+    static int maxStateCount(NFA nfa) {
+        return (int) Math.min(MAX_STATE_COUNT,
+            Math.max(MIN_STATE_COUNT, (long) MAX_GROWTH * nfa.size()));
     }
     
     private static Arc[] arcsFrom(SortedMap<CharClass, State> ccNSmap) {
@@ -193,24 +343,67 @@ final class DFA {
 
     final NFA nfa;
     final State init;
+    final boolean leftmostFirst;
+    
+    /**
+     * True if the <code>loop</code> State is followed when the init symbol
+     * carries the loop flag, so that one pass finds the end of the leftmost
+     * match.
+     */
+    final boolean findLoop;
+
+    /**
+     * The symbol classes of the NFA; every Arc interval lies within a single
+     * class.
+     */
+    final Alphabet alphabet;
+    
+    /**
+     * Construct a complete DFA from an NFA, with the match semantics
+     * specified by the flags of the NFA's Pattern.
+     * 
+     * @param nfa
+     */
+    DFA(final NFA nfa) {
+        this(nfa, !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST), false);
+    }
     
     /**
      * Construct a complete DFA from an NFA.
      * 
      * @param nfa
+     * @param leftmostFirst true for Perl style (priority ordered) semantics,
+     * false for POSIX style (leftmost-longest) semantics.
+     * @param findLoop true to follow the <code>loop</code> State; see
+     * {@link #findLoopApplies(NFA)}.
+     */
+    DFA(final NFA nfa, boolean leftmostFirst, boolean findLoop) {
+        this(nfa, leftmostFirst, findLoop, MAX_STATE_COUNT);
+    }
+
+    /**
+     * Construct a complete DFA from an NFA, of at most
+     * <code>maxStateCount</code> States.
+     * 
+     * @throws EngineStyle.ConstructionException
+     *             if the DFA would have more.
      */
     @SuppressWarnings("serial")
-    DFA(final NFA nfa) {
+    DFA(final NFA nfa, boolean leftmostFirst, boolean findLoop,
+            final int maxStateCount) {
         
+        assert !findLoop || findLoopApplies(nfa);
         this.nfa = nfa;
+        this.leftmostFirst = leftmostFirst;
+        this.findLoop = findLoop;
         
         @SuppressWarnings("serial")
         final class StateFactory {
             
-            private Map<Set<NFA.State>, State> map = 
-                new LinkedHashMap<Set<NFA.State>, State>();
+            private Map<List<NFA.State>, State> map = 
+                new LinkedHashMap<List<NFA.State>, State>();
             
-            private State stateFrom(Set<NFA.State> nfaStates) {
+            private State stateFrom(List<NFA.State> nfaStates) {
                 State state = map.get(nfaStates);
                 if (state == null) {
                     state = new State(nfa, nfaStates);
@@ -224,14 +417,16 @@ final class DFA {
         /*
          * Subset construction as breadth first search
          */
-        final Set<NFA.State> nextNFAstates = new LinkedHashSet<NFA.State>();
-        nextNFAstates.addAll(nfa.alpha);
-        
-        init = factory.stateFrom(nextNFAstates);
+        init = factory.stateFrom(initStateList(nfa, leftmostFirst));
+        alphabet = nfa.alphabet();
         new BreadthFirstVisitor<State, Arc>() {
-            
-            SortedSet<CharClass> sigma = new TreeSet<CharClass>();
+
             SortedMap<CharClass, State> cc2ns = new TreeMap<CharClass, State>();
+            /*
+             * the next State depends only on which NFA States contain the
+             * symbol, so classes which agree on that share the work.
+             */
+            Map<BitSet, State> memo = new HashMap<BitSet, State>();
             int watchdog = 0;
             
             /*
@@ -240,29 +435,34 @@ final class DFA {
             @Override
             protected void visit(State state) {
                 
-                if (++watchdog >= MAX_STATE_COUNT) {
+                if (++watchdog >= maxStateCount) {
                     throw new EngineStyle.ConstructionException(
-                        "DFA state count exceeded: " + MAX_STATE_COUNT);
+                        "DFA state count exceeded: " + maxStateCount);
                 }
                 
-                sigma.clear();
-                for(NFA.State nfaState : state.nfaStates) {
-                     sigma.add(nfaState.cc);
-                }
-                sigma = CharClass.partition(sigma);
-                
                 cc2ns.clear();
-                for (CharClass cc : sigma) {
-                    nextNFAstates.clear();
+                memo.clear();
+                for (int k = 1; k < alphabet.size(); ++k) {
+                    int c = alphabet.representative(k);
+                    BitSet containing = new BitSet();
+                    int i = 0;
                     for (NFA.State nfaState : state.nfaStates) {
-                        if (nfaState.cc.contains(cc)) {
-                            nextNFAstates.addAll(
-                                stateSetFrom(nfaState.arcs()));
+                        if (nfaState != GROUP_SEPARATOR
+                                && nfaState.cc.contains(c)) containing.set(i);
+                        ++i;
+                    }
+                    if (containing.isEmpty()) continue;
+                    State nextState = memo.get(containing);
+                    if (nextState == null && !memo.containsKey(containing)) {
+                        List<NFA.State> nextNFAstates = stateListFrom(nfa,
+                            leftmostFirst, findLoop, state.nfaStates, c);
+                        if (!nextNFAstates.isEmpty()) {
+                            nextState = factory.stateFrom(nextNFAstates);
                         }
+                        memo.put(containing, nextState);
                     }
-                    if (!nextNFAstates.isEmpty()) {
-                        State nextState = factory.stateFrom(nextNFAstates);
-                        cc2ns.put(cc, nextState);
+                    if (nextState != null) {
+                        cc2ns.put(alphabet.charClass(k), nextState);
                     }
                 }
                 state.arcs(arcsFrom(cc2ns));
@@ -283,6 +483,102 @@ final class DFA {
         if (logger.isLoggable(level)) {
             logger.log(level, "dfa unminimized: " + toString(), this);
         }
+        
+        unminimizedSize = size();
+        minimize();
+        
+        if (logger.isLoggable(level)) {
+            logger.log(level, "dfa minimized from " + unminimizedSize 
+                + " states: " + toString(), this);
+        }
+    }
+    
+    /**
+     * Merges equivalent States by Moore's partition refinement. States are
+     * only equivalent if their flags agree, since <code>hitEnd</code> and
+     * <code>requireEnd</code> are computed from them, and if every symbol
+     * takes them to equivalent States. The first State of each block in
+     * topological order - and so <code>init</code> - stands for the block.
+     */
+    private void minimize() {
+        
+        final List<State> states = topologicalSort(init);
+        assert states.get(0) == init;
+        final Map<State, Integer> index = new IdentityHashMap<State, Integer>();
+        for (State state : states) index.put(state, index.size());
+        
+        final int n = states.size();
+        int[] block = new int[n];
+        Map<List<Integer>, Integer> blocks = new HashMap<List<Integer>, Integer>();
+        for (int i = 0; i < n; ++i) {
+            State state = states.get(i);
+            List<Integer> key = Arrays.asList(
+                state.accept ? 1 : 0, state.pureAccept() ? 1 : 0,
+                state.containsOmega ? 1 : 0, state.stranded ? 1 : 0);
+            block[i] = blockFor(blocks, key);
+        }
+        int nBlocks;
+        do {
+            nBlocks = blocks.size();
+            blocks.clear();
+            int[] refined = new int[n];
+            for (int i = 0; i < n; ++i) {
+                List<Integer> key = new ArrayList<Integer>();
+                key.add(block[i]);
+                for (Arc arc : states.get(i).arcs) {
+                    int ns = block[index.get(arc.ns)];
+                    int last = key.size() - 1;
+                    if (last > 0 && key.get(last) == ns 
+                            && key.get(last - 1) == arc.iv.begin) {
+                        key.set(last - 1, arc.iv.end);
+                    } else {
+                        key.add(arc.iv.begin);
+                        key.add(arc.iv.end);
+                        key.add(ns);
+                    }
+                }
+                refined[i] = blockFor(blocks, key);
+            }
+            block = refined;
+        } while (blocks.size() != nBlocks);
+        
+        if (nBlocks == n) return;
+        
+        State[] reps = new State[nBlocks];
+        for (int i = 0; i < n; ++i) {
+            if (reps[block[i]] == null) reps[block[i]] = states.get(i);
+        }
+        List<Arc> arcs = new ArrayList<Arc>();
+        for (State rep : reps) {
+            arcs.clear();
+            for (Arc arc : rep.arcs) {
+                State ns = reps[block[index.get(arc.ns)]];
+                int last = arcs.size() - 1;
+                if (last >= 0 && arcs.get(last).ns == ns
+                        && arcs.get(last).iv.end == arc.iv.begin) {
+                    arcs.set(last, new Arc(arcs.get(last).iv.join(arc.iv), ns));
+                } else {
+                    arcs.add(new Arc(arc.iv, ns));
+                }
+            }
+            rep.arcs(arcs.toArray(new Arc[arcs.size()]));
+        }
+    }
+    
+    private static int blockFor(Map<List<Integer>, Integer> blocks, 
+            List<Integer> key) {
+        Integer b = blocks.get(key);
+        if (b == null) blocks.put(key, b = blocks.size());
+        return b;
+    }
+    
+    private final int unminimizedSize;
+    
+    /**
+     * @return the number of States before minimization.
+     */
+    int unminimizedSize() {
+        return unminimizedSize;
     }
             
     Iterable<State> states() {
@@ -0,0 +1,305 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * DFA engine which performs the subset construction on demand, as the input
+ * reaches each state. States are kept in a cache shared by every
+ * <code>Matcher</code> of the <code>Pattern</code>; when the cache exceeds
+ * its budget it is flushed and rebuilt from scratch.
+ * <p>
+ * The cache is never locked while matching: each State's transitions are
+ * filled in racily, which is benign because a State is fully constructed
+ * (all fields final) before it is published, and a missed transition is
+ * simply computed again.
+ * <p>
+ * As with the {@link DFAtableEngine}, the find loop of the NFA is folded into
+ * the DFA where the pattern allows it.
+ * <p>
+ * Where the input reaches more States than the cache holds, it is flushed
+ * over and over and every char pays for a subset construction step. Once
+ * the cache is flushed during an eval() which has had to compute a
+ * transition for more than one char in {@link #THRASH_FACTOR}, the DFA is
+ * given up on: that eval(), and every one after it, is run by an
+ * {@link NFAtableEngine} of the same NFA.
+ */
+final class DFAlazyEngine extends Engine {
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        LOOP_DBC, LEFTMOST_FIRST, RELUCTANT_QUANTIFIERS);
+
+    /**
+     * The approximate number of bytes the state cache may occupy before it
+     * is flushed.
+     * <p>
+     * {@link #CACHE_BUDGET} is not <code>private</code> or
+     * <code>final</code> in order to facilitate testing.
+     */
+    static int CACHE_BUDGET = 2 * 1024 * 1024;
+
+    /*
+     * never flush fewer states than this, however large they are.
+     */
+    private static final int MIN_CACHED_STATES = 64;
+
+    /**
+     * The fewest chars per transition computed an eval() must read, by the
+     * time the cache is flushed, for the DFA to be worth keeping.
+     */
+    static final int THRASH_FACTOR = 10;
+
+    private final class State {
+
+        final List<NFA.State> nfaStates;
+        final State[] next;
+
+        final boolean containsOmega;
+        final boolean stranded;
+        final boolean accept;
+        final boolean pureAccept;
+
+        State(List<NFA.State> nfaStates) {
+            this.nfaStates = nfaStates;
+            this.next = new State[alphabet.size()];
+            List<NFA.State> lead = DFA.leadingGroup(nfaStates);
+            containsOmega = lead.contains(nfa.omega);
+            accept = nfaStates.contains(nfa.accept);
+            stranded = lead.size() > 
+                (containsOmega ? lead.contains(nfa.accept) ? 2 : 1 : 0);
+            pureAccept = accept && nfaStates.size() == 1;
+        }
+
+        int cost() {
+            return 16 * (next.length + nfaStates.size() + 8);
+        }
+    }
+
+    private final class Cache {
+
+        final ConcurrentMap<List<NFA.State>, State> map =
+            new ConcurrentHashMap<List<NFA.State>, State>();
+        final AtomicInteger cost = new AtomicInteger();
+        final State init;
+
+        Cache() {
+            init = stateFrom(DFA.initStateList(nfa, leftmostFirst));
+        }
+
+        State stateFrom(List<NFA.State> nfaStates) {
+            State state = map.get(nfaStates);
+            if (state == null) {
+                State newState = new State(nfaStates);
+                state = map.putIfAbsent(nfaStates, newState);
+                if (state == null) {
+                    state = newState;
+                    cost.addAndGet(state.cost());
+                }
+            }
+            return state;
+        }
+    }
+
+    private final NFA nfa;
+    private final Alphabet alphabet;
+    private final boolean leftmostFirst;
+    private final boolean findLoop;
+    private final ReverseDFA reverse;
+    private final AtomicReference<Cache> cache = new AtomicReference<Cache>();
+    private final AtomicInteger flushes = new AtomicInteger();
+
+    /*
+     * the NFA engine run once the cache thrashes: set racily, as the cache
+     * is filled, by the first eval() which needs it.
+     */
+    private volatile NFAtableEngine fallback;
+
+    /*
+     * marks a transition known to lead nowhere.
+     */
+    private final State dead;
+
+    DFAlazyEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        this.nfa = nfa;
+        this.alphabet = nfa.alphabet();
+        this.leftmostFirst =
+            !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST);
+        this.findLoop = DFA.findLoopApplies(nfa);
+        this.reverse = findLoop ? ReverseDFA.newReverseDFA(nfa) : null;
+        this.dead = new State(Collections.<NFA.State>emptyList());
+        cache.set(new Cache());
+        logger.log(level, alphabet.toString());
+    }
+
+    /**
+     * Computes, caches and returns the transition from <code>state</code>
+     * on symbol class <code>k</code>.
+     */
+    private State delta(State state, int k) {
+        State ns = dead;
+        if (k != 0) {
+            List<NFA.State> nfaStates = DFA.stateListFrom(nfa, leftmostFirst,
+                findLoop, state.nfaStates, alphabet.representative(k));
+            if (!nfaStates.isEmpty()) {
+                Cache c = cache.get();
+                if (c.cost.get() > CACHE_BUDGET
+                        && c.map.size() >= MIN_CACHED_STATES) {
+                    Cache fresh = new Cache();
+                    if (cache.compareAndSet(c, fresh)) {
+                        flushes.incrementAndGet();
+                        logger.log(level, "DFA state cache flushed");
+                    }
+                    c = cache.get();
+                }
+                ns = c.stateFrom(nfaStates);
+            }
+        }
+        state.next[k] = ns;
+        return ns;
+    }
+
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        if (fallback != null) {
+            fallback.eval(m);
+            return;
+        }
+        final int from = m.i;
+        Cache cached = cache.get();
+        int misses = 0;
+
+        State state;
+        State nextState = cached.init;
+        int c = m.initStatus;
+        int len = 0;
+        int k;
+
+        while (true) {
+            state = nextState;
+            nextState = state.next[k = alphabet.classOf(c)];
+            if (nextState == null) {
+                nextState = delta(state, k);
+                ++misses;
+                if (cache.get() != cached) {
+                    if ((long) misses * THRASH_FACTOR > len) {
+                        thrash(m, from);
+                        return;
+                    }
+                    cached = cache.get();
+                }
+            }
+            if (nextState == dead) break;
+            if (nextState.accept) {
+                m.cga.start(0, 0);
+                m.cga.end(0, len - 1);
+            }
+            if (nextState.pureAccept) {
+                break;
+            }
+            c = m.nextChar();
+            ++len;
+        }
+        if ((m.initStatus & CharClass.LOOP_FLAG) != 0 && m.cga.match(0)) {
+            m.cga.start(0, reverse != null ? reverse.startOf(m) : startOf(m));
+        }
+        m.hitEnd = c == EOF
+                && state.stranded;
+        m.requireEnd = c == EOF
+                && m.cga.match(0)
+                && m.cga.end(0) == len - 1
+                && !state.containsOmega;
+    }
+
+    /*
+     * gives up on the DFA, and runs the eval() under way over again, from
+     * where it started, with the NFA.
+     */
+    private void thrash(AbstractMatcher m, int from) {
+        NFAtableEngine engine = fallback;
+        if (engine == null) {
+            logger.log(level, "DFA state cache thrashing; using the NFA");
+            fallback = engine = new NFAtableEngine(EngineStyle.NFA_TABLE, nfa);
+        }
+        m.i = from;
+        m.cga.clear(0);
+        engine.eval(m);
+    }
+
+    /*
+     * Without a ReverseDFA, as for the DFAtableEngine: the first position from which the DFA,
+     * anchored, reaches accept at all, over chars the forward scan has 
+     * already read.
+     */
+    private int startOf(AbstractMatcher m) {
+        for (int p = 0; ; ++p) {
+            assert p <= m.cga.end(0);
+            int j = m.start + p;
+            State state = cache.get().init;
+            State nextState;
+            int c = Integer.MIN_VALUE;  // no init flags: no anchors to check
+            int k;
+            while (true) {
+                nextState = state.next[k = alphabet.classOf(c)];
+                if (nextState == null) nextState = delta(state, k);
+                if (nextState == dead) break;
+                if (nextState.accept) return p;
+                assert j < m.i;
+                c = j < m.regionEnd ? m.csq.charAt(j) : EOF;
+                ++j;
+                state = nextState;
+            }
+        }
+    }
+
+    @Override
+    boolean hasFindLoop() {
+        return findLoop;
+    }
+
+    /**
+     * @return the number of times the state cache has been flushed.
+     */
+    int flushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return true once the cache has thrashed, and the NFA is run instead.
+     */
+    boolean thrashed() {
+        return fallback != null;
+    }
+
+    /**
+     * @return the number of states currently cached.
+     */
+    int cachedStates() {
+        return cache.get().map.size();
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + cachedStates() + " states cached, "
+            + flushes() + " flushes" + (thrashed() ? ", thrashed" : "") + ")";
+    }
+}
@@ -1,59 +1,255 @@
-/* @LICENSE@  
+/* @LICENSE@
  */
 package org.xtrms.regex;
 
 import static org.xtrms.regex.DFA.Arc;
 import static org.xtrms.regex.DFA.State;
 import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+import static org.xtrms.regex.Misc.topologicalSort;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
 import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
 
 import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * DFA engine driven by a flat transition table: the {@link Alphabet} maps
+ * each symbol to its class, and the class indexes the row of the current
+ * state.
+ * <p>
+ * A table entry is the offset of the next state's row, shifted left to make
+ * room for the {@link #ACCEPT} and {@link #PURE_ACCEPT} flags of that state,
+ * or {@link #DEAD}. The flags only needed once the scan is over are kept
+ * aside, indexed by state number.
+ * <p>
+ * Where the pattern allows, the DFA includes the find loop of the NFA, so
+ * that <code>find()</code> is a single pass which locates the end of the
+ * leftmost match; the start is then recovered from the buffered input, by
+ * a {@link ReverseDFA} if the pattern has one.
+ */
 final class DFAtableEngine extends Engine {
 
     public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
-        LOOP_DBC);
-    
+        LOOP_DBC, LEFTMOST_FIRST, RELUCTANT_QUANTIFIERS);
+
+    static final int ACCEPT = 1;
+    static final int PURE_ACCEPT = 2;
+    static final int FLAG_BITS = 2;
+    static final int DEAD = -1;
+
+    /**
+     * The flat transition table of a DFA. Row 0 belongs to the initial
+     * state.
+     */
+    static final class Table {
+
+        final Alphabet alphabet;
+        final int[] table;
+        final int width;
+        final boolean[] stranded;
+        final boolean[] containsOmega;
+
+        Table(DFA dfa) {
+            alphabet = dfa.alphabet;
+            width = alphabet.size();
+
+            List<State> states = topologicalSort(dfa.init);
+            assert states.get(0) == dfa.init;
+            if ((long) states.size() * width > Integer.MAX_VALUE >>> FLAG_BITS) {
+                throw new EngineStyle.ConstructionException(
+                    "DFA transition table too large: " + states.size()
+                    + " states, " + width + " classes");
+            }
+            Map<State, Integer> number = new IdentityHashMap<State, Integer>();
+            for (State state : states) number.put(state, number.size());
+
+            table = new int[states.size() * width];
+            stranded = new boolean[states.size()];
+            containsOmega = new boolean[states.size()];
+            for (State state : states) {
+                int s = number.get(state);
+                stranded[s] = state.stranded;
+                containsOmega[s] = state.containsOmega;
+                int row = s * width;
+                table[row] = DEAD;
+                for (int k = 1; k < width; ++k) {
+                    State ns = delta(alphabet.representative(k), state.arcs);
+                    table[row + k] = ns == null ? DEAD
+                            : (number.get(ns) * width) << FLAG_BITS
+                                | (ns.accept ? ACCEPT : 0)
+                                | (ns.pureAccept() ? PURE_ACCEPT : 0);
+                }
+            }
+        }
+    }
+
     private final DFA dfa;
     DFA dfa() {
         return dfa;
     }
+
+    private final Table t;
+    Table table() {
+        return t;
+    }
     
+    private final ReverseDFA reverse;
+    ReverseDFA reverse() {
+        return reverse;
+    }
+
     DFAtableEngine(EngineStyle style, NFA nfa) {
         super(style);
-        dfa = new DFA(nfa);
+        boolean leftmostFirst = 
+            !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST);
+        /*
+         * one DFA, given up on as soon as it is seen to blow up: an
+         * anchored one would often blow up just the same, and the
+         * DFAlazyEngine only builds what the input reaches.
+         */
+        this.dfa = new DFA(nfa, leftmostFirst, DFA.findLoopApplies(nfa),
+            DFA.maxStateCount(nfa));
+        t = new Table(dfa);
+        reverse = dfa.findLoop ? ReverseDFA.newReverseDFA(nfa) : null;
     }
 
     @Override
     protected void eval(AbstractMatcher m) {
-        
-        State state;
-        State nextState = dfa.init; 
+
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        int row;
+        int next = 0;   // init is row 0
         int c = m.initStatus;
         int len = 0;
-        
+
         while(true) {
-            state = nextState;
-            nextState = delta(c, state.arcs);
-            if (nextState == null) break;
-            if (nextState.accept) {
+            row = next >>> FLAG_BITS;
+            next = table[row + alphabet.classOf(c)];
+            if (next == DEAD) break;
+            if ((next & ACCEPT) != 0) {
                 m.cga.start(0, 0);
                 m.cga.end(0, len-1);
             }
-            if (nextState.pureAccept()) {
+            if ((next & PURE_ACCEPT) != 0) {
                 break;
             }
             c = m.nextChar();
             ++len;
         }
-        m.hitEnd = c == EOF 
-                && state.stranded;        
+        if ((m.initStatus & CharClass.LOOP_FLAG) != 0 && m.cga.match(0)) {
+            m.cga.start(0, startOf(m.csq, m.start, m.start + m.cga.end(0),
+                m.regionEnd) - m.start);
+        }
+        int s = row / t.width;
+        m.hitEnd = c == EOF
+                && t.stranded[s];
         m.requireEnd = c == EOF
                 && m.cga.match(0)
                 && m.cga.end(0) == len - 1
-                && !state.containsOmega;
+                && !t.containsOmega[s];
     }
-    
+
+    /*
+     * The start of the leftmost match ending at <code>end</code>, found by a
+     * scan from <code>from</code> of the chars of <code>csq</code> - those
+     * from <code>limit</code> on read as EOF. Without a ReverseDFA, it is
+     * the first position from which the DFA, anchored, reaches accept at
+     * all: the forward scan has already read (and the caller still buffers)
+     * every char this looks at, since it only stops once all the strands
+     * started earlier are dead.
+     */
+    int startOf(CharSequence csq, int from, int end, int limit) {
+        if (reverse != null) return reverse.startOf(csq, from, end);
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        for (int p = from; ; ++p) {
+            assert p <= end;
+            int j = p;
+            int next = 0;
+            int c = Integer.MIN_VALUE;  // no init flags: no anchors to check
+            while (true) {
+                next = table[(next >>> FLAG_BITS) + alphabet.classOf(c)];
+                if (next == DEAD) break;
+                if ((next & ACCEPT) != 0) return p;
+                if (c == EOF) break;
+                c = j < limit ? csq.charAt(j) : EOF;
+                ++j;
+            }
+        }
+    }
+
+    /**
+     * A scan of the DFA which can be suspended where its input runs out,
+     * and resumed when more comes: the entry it is at, the number of chars
+     * it has read, and the length of the longest match so far, or -1.
+     */
+    static final class Scan {
+        int next;
+        int len;
+        int end;
+    }
+
+    /*
+     * starts s from the start flags initStatus.
+     */
+    void start(Scan s, int initStatus) {
+        s.next = t.table[t.alphabet.classOf(initStatus)];   // init is row 0
+        s.len = 0;
+        s.end = -1;
+    }
+
+    /*
+     * Runs s on, as eval() does, through the chars of csq from index
+     * from + s.len; at limit the input runs out, and is EOF if eoi - else
+     * the scan is suspended there.
+     * 
+     * @return true once the scan is over.
+     */
+    boolean resume(Scan s, CharSequence csq, int from, int limit, boolean eoi) {
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        int next = s.next;
+        int len = s.len;
+        boolean over = true;
+        while (next != DEAD && (next & PURE_ACCEPT) == 0) {
+            int j = from + len;
+            if (j >= limit && !eoi) {
+                over = false;
+                break;
+            }
+            int c = j < limit ? csq.charAt(j) : EOF;
+            next = table[(next >>> FLAG_BITS) + alphabet.classOf(c)];
+            if (next != DEAD && (next & ACCEPT) != 0) s.end = len;
+            if (c == EOF) break;
+            ++len;
+        }
+        s.next = next;
+        s.len = len;
+        return over;
+    }
+
+    @Override
+    boolean hasFindLoop() {
+        return dfa.findLoop;
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + dfa.size() + " states, "
+            + dfa.unminimizedSize() + " before minimization, "
+            + (t.width - 1) + " classes"
+            + (dfa.findLoop ? ", find loop" : "")
+            + (reverse != null ? ", " + reverse : "") + ")";
+    }
+
+    /*
+     * only used to fill in the table.
+     */
     private static State delta(int c, Arc[] arcs) {
         int hi = arcs.length;
         int lo = 0;
@@ -11,6 +11,17 @@ abstract class Engine {
     
     abstract protected void eval(AbstractMatcher m);
     
+    /**
+     * @return true if {@link #eval(AbstractMatcher)} finds the leftmost match
+     * by itself when the loop flag is set, rather than having the
+     * <code>Matcher</code> bump along one position at a time. By default,
+     * true if the {@link EngineStyle} has the
+     * {@link Pattern.Feature#FIND_LOOP} capability.
+     */
+    boolean hasFindLoop() {
+        return style.capabilities().contains(Pattern.Feature.FIND_LOOP);
+    }
+    
     @Override
     public final String toString() {
         return style + ": " + doToString();
@@ -6,6 +6,7 @@ import static org.xtrms.regex.Pattern.Feature;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -43,18 +44,79 @@ public enum EngineStyle {
             assert engine != null : nfa.requirements;
             return engine;
         }
+
+        @Override
+        BacktrackEngine newShortInputEngine(NFA nfa, Engine engine) {
+            if (engine.style != NFA_TABLE) return null;
+            try {
+                return (BacktrackEngine) BACKTRACK.newEngine(nfa);
+            } catch (ConstructionException e) {
+                logger.log(level, e.toString(), e);
+                return null;
+            }
+        }
     },
 
+    /**
+     * Aho-Corasick automaton, for alternations of literals such as
+     * <code>foo|bar|baz</code>: built and run in linear time, however many
+     * the alternatives. First, so that {@link #DYNAMIC} tries it before any
+     * DFA.
+     */
+    AHO_CORASICK("AhoCorasickEngine"),
+
     /**
      * DFA implementation using tables (arrays).
      */
     DFA_TABLE("DFAtableEngine"),
 
+    /**
+     * Bit-parallel NFA simulation, for leftmost-longest patterns of at most
+     * 64 NFA States: no DFA to construct.
+     */
+    BIT_PARALLEL("BitParallelEngine"),
+
+    /**
+     * DFA implementation which builds its states lazily, as the input
+     * reaches them, in a bounded cache shared by all Matchers of a Pattern.
+     * Suited to patterns whose complete DFA would be too large.
+     */
+    DFA_LAZY("DFAlazyEngine"),
+
+    /**
+     * For patterns with capturing groups: a DFA locates each match, and the
+     * NFA fills in the groups from the match alone.
+     */
+    HYBRID("HybridEngine"),
+
+    /**
+     * Tagged DFA implementation using tables: capturing groups in a single
+     * deterministic pass.
+     */
+    TDFA_TABLE("TDFAtableEngine"),
+
+    /**
+     * For one-pass patterns - where at most one NFA strand can go on at each
+     * position - a single strand, with its capturing groups written in place.
+     */
+    ONE_PASS("OnePassEngine"),
+
     /**
      * Full featured table driven NFA implementation.
      */
 //    NFA_TABLE("NFApikeEngine"); 
-    NFA_TABLE("NFAtableEngine"); 
+    NFA_TABLE("NFAtableEngine"),
+
+    /**
+     * Backtracking implementation, kept linear by a bitmap of the NFA States
+     * visited at each position; faster than the NFA on short inputs. Last,
+     * so that {@link #DYNAMIC} never picks it for a Pattern, only for a
+     * <code>Matcher</code> whose input is short enough - as the system
+     * property <code>org.xtrms.regex.backtrackBitBudget</code> has it: the
+     * most bits of bitmap, NFA States times chars, to use (262144 by
+     * default, and 0 to never pick it).
+     */
+    BACKTRACK("BacktrackEngine");
 
 
     private static final Logger logger = Logger.getLogger("org.xtrms.regex");
@@ -103,6 +165,16 @@ public enum EngineStyle {
         }
     }
 
+    /**
+     * @return the Engine a <code>Matcher</code> uses in place of
+     * <code>engine</code> when its input is short enough, or null. Only
+     * {@link #DYNAMIC} has one, and only where it falls back on
+     * {@link #NFA_TABLE}: the other Engines are faster even on short inputs.
+     */
+    BacktrackEngine newShortInputEngine(NFA nfa, Engine engine) {
+        return null;
+    }
+
     Engine newEngine(NFA nfa) {
         assert className != null;
         if (!capabilities.containsAll(nfa.requirements)) {
@@ -121,6 +193,14 @@ public enum EngineStyle {
             return (Engine) ctor.newInstance(this, nfa);
         } catch (RuntimeException e) {
             throw e;
+        } catch (InvocationTargetException e) {
+            /*
+             * let a ConstructionException through, so DYNAMIC can move on.
+             */
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new AssertionError(e);
         } catch (Exception e) {
             throw new AssertionError(e);
         }
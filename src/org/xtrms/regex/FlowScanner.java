@@ -0,0 +1,193 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The scan of a {@link Pattern} over many streams at once - network flows,
+ * say - each fed a chunk at a time, and in between reduced to a single
+ * <code>int</code>: the state of a DFA, which the caller keeps wherever it
+ * keeps its flows, and passes back with the next chunk. No buffer, and no
+ * Matcher, is kept per stream. Like Pattern, instances are immutable and
+ * thread safe.
+ * <p>
+ * Since no input is kept, no match can be told from another: what a scan
+ * reports is each offset in the stream at which <i>some</i> match ends,
+ * whatever its start - as a find from every position in turn would, with
+ * the matches overlapping. A stream holds a match at all if any is
+ * reported.
+ * <p>
+ * The DFA is that of the union automaton of a {@link PatternSet}, and the
+ * same Patterns are ruled out: those with possessive quantifiers, and those
+ * with boundaries the DFA can't check as it runs. A boundary at the end of a
+ * match - <code>$</code>, <code>\z</code>, and <code>\b</code> or
+ * <code>\B</code> after a char which is a word char wherever it matches, or
+ * never is, as in <code>ab\b</code> - is checked against the char after the
+ * match, and is allowed. Any other is not: <code>\Z</code>, any boundary
+ * at the start of a match (<code>^</code>, <code>\A</code>,
+ * <code>\G</code>, <code>\b</code> and <code>\B</code> alike) or within
+ * it, and <code>\b</code> or <code>\B</code> after a char which may or may
+ * not be a word char, as in <code>a.\b</code>. The DFA has at most
+ * {@link #MAX_STATE_COUNT} states, so that a state fits in a
+ * <code>char</code>.
+ */
+public final class FlowScanner {
+
+    /**
+     * The most DFA states a FlowScanner constructs.
+     */
+    public static final int MAX_STATE_COUNT = 1 << 16;
+
+    private static final int INIT = Integer.MIN_VALUE | CharClass.LOOP_FLAG;
+
+    private final String regex;
+    private final int flags;
+    private final Alphabet alphabet;
+    private final int width;
+
+    /*
+     * a row of width alphabet.size() per state, and by state whether it
+     * holds the accept State - reached a char late, so that a match ends
+     * before the char which enters it.
+     */
+    private final int[] table;
+    private final boolean[] accepting;
+    private final int initial;
+
+    private FlowScanner(String regex, int flags, Expression... exprs) {
+        this.regex = regex;
+        this.flags = flags;
+        NFA nfa = Pattern.NFAfor(regex, flags, exprs);
+        if (!UnionNFA.unites(nfa)) {
+            throw new IllegalArgumentException(
+                "Pattern has boundaries to check: " + regex + " " + nfa.requirements);
+        }
+        List<NFA> nfas = new ArrayList<NFA>();
+        nfas.add(nfa);
+        UnionNFA union = new UnionNFA(nfas);
+        alphabet = union.alphabet;
+        width = alphabet.size();
+        List<BitSet> dfaStates = new ArrayList<BitSet>();
+        table = union.determinize(false, MAX_STATE_COUNT, dfaStates);
+        accepting = new boolean[dfaStates.size()];
+        for (int d = 0; d < accepting.length; ++d) {
+            accepting[d] = union.accepts(dfaStates.get(d), 0);
+        }
+        initial = table[alphabet.classOf(INIT)];
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the Pattern has boundaries to check, or possessive
+     *             quantifiers.
+     * @throws EngineStyle.ConstructionException
+     *             if the DFA would exceed {@link #MAX_STATE_COUNT} states.
+     */
+    public static FlowScanner compile(String regex, Expression... exprs) {
+        return new FlowScanner(regex, 0, exprs);
+    }
+
+    public static FlowScanner compile(String regex, int flags, Expression... exprs) {
+        return new FlowScanner(regex, flags, exprs);
+    }
+
+    /**
+     * @return the regex this FlowScanner was compiled from.
+     */
+    public String pattern() {
+        return regex;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    /**
+     * @return the state of a stream of which nothing has been scanned.
+     */
+    public int initial() {
+        return initial;
+    }
+
+    /**
+     * @return the number of DFA states: every state is less.
+     */
+    public int stateCount() {
+        return accepting.length;
+    }
+
+    /**
+     * @return true if no match can end anywhere further on in a stream in
+     *         <code>state</code> - which has no need to be scanned, then.
+     */
+    public boolean isDead(int state) {
+        check(state);
+        return state == UnionNFA.DEAD;
+    }
+
+    /**
+     * Scans the next chunk of a stream.
+     *
+     * @param state
+     *            where the stream stands: {@link #initial()}, or as the scan
+     *            of the chunk before left it.
+     * @param ends
+     *            given the index in <code>chunk</code> of each end of a
+     *            match, in order - 0 for one which ended with the chunk
+     *            before, as the last char can't tell; or null.
+     * @return the state of the stream after <code>chunk</code>.
+     */
+    public int scan(int state, CharSequence chunk, IntConsumer ends) {
+        check(state);
+        final int[] table = this.table;
+        final Alphabet alphabet = this.alphabet;
+        for (int i = 0, n = chunk.length(); i < n && state != UnionNFA.DEAD; ++i) {
+            state = table[state * width + alphabet.classOf(chunk.charAt(i))];
+            if (accepting[state] && ends != null) ends.accept(i);
+        }
+        return state;
+    }
+
+    /**
+     * As {@link #scan(int, CharSequence, IntConsumer)}, over the bytes
+     * remaining in <code>bytes</code> - which are all consumed - each read
+     * as the char of the same value, as ISO-8859-1 has it. The indexes are
+     * from the position of <code>bytes</code> on entry.
+     */
+    public int scan(int state, ByteBuffer bytes, IntConsumer ends) {
+        check(state);
+        final int[] table = this.table;
+        final Alphabet alphabet = this.alphabet;
+        for (int i = 0, n = bytes.remaining(); i < n && state != UnionNFA.DEAD; ++i) {
+            state = table[state * width + alphabet.classOf(bytes.get() & 0xff)];
+            if (accepting[state] && ends != null) ends.accept(i);
+        }
+        bytes.position(bytes.limit());
+        return state;
+    }
+
+    /**
+     * @return true if a match ends at the end of a stream in
+     *         <code>state</code>.
+     */
+    public boolean endOfInput(int state) {
+        check(state);
+        return accepting[table[state * width + alphabet.classOf(Misc.EOF)]];
+    }
+
+    private void check(int state) {
+        if (state < 0 || state >= accepting.length) {
+            throw new IllegalArgumentException("not a state: " + state);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FlowScanner: pattern=" + regex + ", " + accepting.length + " DFA states";
+    }
+}
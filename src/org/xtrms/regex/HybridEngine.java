@@ -0,0 +1,94 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Pattern.Feature.CAPTURING_GROUPS;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+
+import java.util.EnumSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Two phase engine for patterns with capturing groups: a DFA of the pattern,
+ * blind to its groups, locates the match, then a second engine is run,
+ * anchored, from the start of the match only, to fill in the groups: the
+ * one-pass engine if the pattern allows, else a tagged DFA, or the NFA if
+ * the tagged DFA would be too large. Both phases run the one NFA, so that
+ * they agree on the match wherever a nullable loop leaves a choice.
+ * <p>
+ * The second phase reads the match, and at most the few chars after it the DFA
+ * has already read; a <code>find()</code> through a large input is thus
+ * about as fast as it would be without the groups.
+ */
+final class HybridEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        CAPTURING_GROUPS, LOOP_DBC, LEFTMOST_FIRST, RELUCTANT_QUANTIFIERS);
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    private final Engine dfa;
+    Engine dfa() {
+        return dfa;
+    }
+    
+    private final Engine groups;
+
+    HybridEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        Engine dfa;
+        try {
+            dfa = new DFAtableEngine(EngineStyle.DFA_TABLE, nfa);
+        } catch (EngineStyle.ConstructionException e) {
+            logger.log(level, e.getMessage() + "; using a lazy DFA");
+            dfa = new DFAlazyEngine(EngineStyle.DFA_LAZY, nfa);
+        }
+        this.dfa = dfa;
+        Engine groups;
+        if (OnePassEngine.isOnePass(nfa)) {
+            groups = new OnePassEngine(EngineStyle.ONE_PASS, nfa);
+        } else try {
+            groups = new TDFAtableEngine(EngineStyle.TDFA_TABLE, nfa, false);
+        } catch (EngineStyle.ConstructionException e) {
+            logger.log(level, e.getMessage() + "; using the NFA");
+            groups = new NFAtableEngine(EngineStyle.NFA_TABLE, nfa);
+        }
+        this.groups = groups;
+    }
+
+    @Override
+    protected void eval(AbstractMatcher m) {
+        
+        dfa.eval(m);
+        if (!m.cga.match(0)) return;
+        
+        /*
+         * hitEnd and requireEnd are those of the DFA's scan, which is the
+         * one that saw all the input the find looked at.
+         */
+        final boolean hitEnd = m.hitEnd;
+        final boolean requireEnd = m.requireEnd;
+        final int s = m.cga.start(0);
+        final int end = m.cga.end(0);
+        m.evalProlog(false, m.start + s);
+        groups.eval(m);
+        assert m.cga.start(0) == 0 && m.cga.end(0) == end - s : m.cga;
+        m.cga.shift(s);
+        m.hitEnd = hitEnd;
+        m.requireEnd = requireEnd;
+    }
+
+    @Override
+    boolean hasFindLoop() {
+        return dfa.hasFindLoop();
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + dfa + "; " + groups + ")";
+    }
+}
@@ -0,0 +1,283 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A tokenizer: an ordered list of rules, each a regex, compiled together
+ * into a single DFA. At each position of the input, the rule with the
+ * longest match wins, and among those of the same length, the first in the
+ * list - maximal munch, as lex does it. Like {@link Pattern}, instances
+ * are immutable and thread safe; the {@link Tokens} of an input are not.
+ * <p>
+ * The NFAs of the rules are run as one {@link UnionNFA}, anchored at the
+ * start of each token, and determinized up front: each DFA state records
+ * the rule it accepts, if any, so that lexing is one table lookup per char
+ * plus a rescan of the chars past the end of each token, as far as the
+ * DFA went looking for a longer one.
+ * <p>
+ * The rules may not have boundaries (<code>^ $ \b</code> and such), nor
+ * possessive quantifiers: there is no <code>Matcher</code> to check them.
+ */
+public final class Lexer {
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    private static final int MAX_STATE_COUNT = 10 * 1000;
+
+    /*
+     * anchored: without the loop flag, the loop State never starts a strand.
+     */
+    private static final int INIT = Integer.MIN_VALUE;
+
+    private static final int DEAD = UnionNFA.DEAD;
+
+    private final List<String> names;
+    private final Alphabet alphabet;
+
+    /*
+     * a row of width alphabet.size() per state, and by state the rule it
+     * accepts, or -1.
+     */
+    private final int[] table;
+    private final int[] accept;
+    private final int width;
+
+    private Lexer(List<String> names, List<NFA> nfas) {
+        this.names = Collections.unmodifiableList(names);
+        UnionNFA union = new UnionNFA(nfas);
+        alphabet = union.alphabet;
+        width = alphabet.size();
+        List<BitSet> dfaStates = new ArrayList<BitSet>();
+        table = union.determinize(false, MAX_STATE_COUNT, dfaStates);
+        accept = new int[dfaStates.size()];
+        for (int d = 0; d < accept.length; ++d) {
+            accept[d] = -1;
+            for (int j = 0; j < union.size(); ++j) {
+                if (union.accepts(dfaStates.get(d), j)) {
+                    accept[d] = j;
+                    break;
+                }
+            }
+        }
+        logger.log(level, "Lexer DFA: " + dfaStates.size() + " states");
+    }
+
+    private static NFA nfaOf(String regex, int flags, Expression... exprs) {
+        RegexParser.Result r = new RegexParser().parse(regex, flags, exprs);
+        NFA nfa = new NFA(Pattern.compile(regex, flags, exprs), r.root);
+        if (!UnionNFA.unites(nfa)) {
+            throw new IllegalArgumentException(
+                "Lexer rule has boundaries: " + regex);
+        }
+        return nfa;
+    }
+
+    /**
+     * @param regexes
+     *            the rules, in order of priority; each is also its name.
+     * @throws EngineStyle.ConstructionException
+     *             if the DFA would be too large.
+     */
+    public static Lexer compile(List<String> regexes, Expression... exprs) {
+        return compile(regexes, 0, exprs);
+    }
+
+    public static Lexer compile(List<String> regexes, int flags, Expression... exprs) {
+        List<NFA> nfas = new ArrayList<NFA>();
+        for (String regex : regexes) nfas.add(nfaOf(regex, flags, exprs));
+        return new Lexer(new ArrayList<String>(regexes), nfas);
+    }
+
+    /**
+     * @param rules
+     *            the rules, in order of priority, each named by its
+     *            Expression.
+     */
+    public static Lexer compile(Expression... rules) {
+        List<String> names = new ArrayList<String>();
+        List<NFA> nfas = new ArrayList<NFA>();
+        for (Expression rule : rules) {
+            names.add(rule.name);
+            nfas.add(nfaOf("<" + rule.name + ">", 0, rule));
+        }
+        return new Lexer(names, nfas);
+    }
+
+    /**
+     * @return the number of rules.
+     */
+    public int ruleCount() {
+        return names.size();
+    }
+
+    /**
+     * @param id
+     *            the index of the rule, in the order compiled.
+     * @return its name: the regex, or the name of the Expression.
+     */
+    public String ruleName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return the tokens of <code>r</code>, read a buffer at a time.
+     */
+    public Tokens tokens(Readable r) {
+        return new Tokens(r);
+    }
+
+    /**
+     * @return the tokens of <code>csq</code>.
+     */
+    public Tokens tokens(CharSequence csq) {
+        return new Tokens(CharBuffer.wrap(csq));
+    }
+
+    /**
+     * The tokens of an input, one at a time: {@link #next()} moves on to the
+     * next, which is then described by {@link #ruleId()}, {@link #start()}
+     * and {@link #end()}, and is itself the <code>CharSequence</code> of its
+     * chars - no <code>String</code> per token. Where no rule matches, the
+     * token is the single char there, with a <code>ruleId()</code> of -1.
+     * <p>
+     * The chars of a token are only valid until the next call to
+     * <code>next()</code>.
+     */
+    public final class Tokens implements CharSequence {
+
+        private final Readable in;
+        private boolean eof;
+
+        private char[] buf = new char[StreamMatcher.CHAR_BUFFER_CAPACITY_INIT];
+        /*
+         * the input offset of buf[0]; the token is buf[from, to), and the
+         * chars read buf[0, limit).
+         */
+        private long base;
+        private int from, to, limit;
+        private int ruleId = -1;
+
+        private Tokens(Readable in) {
+            this.in = in;
+        }
+
+        /**
+         * @return false at the end of the input, with no token left.
+         */
+        public boolean next() throws IOException {
+            from = to;
+            if (charAt0(0) == EOF) return false;
+            int best = 0;
+            int rule = -1;
+            int state = table[alphabet.classOf(INIT)];
+            /*
+             * a rule's accept State is reached one symbol past the end of
+             * its match: after the i-th char, the match is i chars long.
+             */
+            for (int i = 0; state != DEAD; ++i) {
+                int c = charAt0(i);
+                state = table[state * width + alphabet.classOf(c)];
+                if (accept[state] >= 0 && i > 0) {
+                    best = i;
+                    rule = accept[state];
+                }
+                if (c == EOF) break;
+            }
+            ruleId = rule;
+            to = from + Math.max(best, 1);
+            return true;
+        }
+
+        /*
+         * the char at offset i of the token, reading more of the input as
+         * needed; or EOF.
+         */
+        private int charAt0(int i) throws IOException {
+            while (from + i >= limit && !eof) fill();
+            return from + i < limit ? buf[from + i] : EOF;
+        }
+
+        private void fill() throws IOException {
+            if (from > 0) {
+                System.arraycopy(buf, from, buf, 0, limit - from);
+                base += from;
+                to -= from;
+                limit -= from;
+                from = 0;
+            }
+            if (limit == buf.length) {
+                char[] grown = new char[2 * buf.length];
+                System.arraycopy(buf, 0, grown, 0, limit);
+                buf = grown;
+            }
+            int n = in.read(CharBuffer.wrap(buf, limit, buf.length - limit));
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+
+        /**
+         * @return the index of the rule which matched the token, or -1.
+         */
+        public int ruleId() {
+            return ruleId;
+        }
+
+        /**
+         * @return the offset in the input of the first char of the token.
+         */
+        public long start() {
+            return base + from;
+        }
+
+        /**
+         * @return the offset in the input past the last char of the token.
+         */
+        public long end() {
+            return base + to;
+        }
+
+        public int length() {
+            return to - from;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return buf[from + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > to - from || start > end) {
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+            return new String(buf, from + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buf, from, to - from);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Lexer: " + names.size() + " rules, " + accept.length
+            + " DFA states";
+    }
+}
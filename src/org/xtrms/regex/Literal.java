@@ -0,0 +1,424 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+
+import org.xtrms.regex.AST.Alt;
+import org.xtrms.regex.AST.CG;
+import org.xtrms.regex.AST.Cat;
+import org.xtrms.regex.AST.Node;
+import org.xtrms.regex.AST.Plus;
+import org.xtrms.regex.AST.Question;
+import org.xtrms.regex.AST.Star;
+import org.xtrms.regex.AST.Terminal;
+import org.xtrms.regex.AST.Visitor.TraversalOrder;
+
+/**
+ * A literal in the matches of a Pattern: a sequence of positions, each of
+ * which is one of a few chars - so that a literal under
+ * {@link Pattern#CASE_INSENSITIVE} is still a literal. Searched for with
+ * Horspool's algorithm, with the shift of a char the least of those of the
+ * positions it is in.
+ */
+final class Literal {
+
+    /**
+     * The most chars a position may be any of.
+     */
+    static final int MAX_SET_SIZE = 4;
+
+    private static final int TABLE_SIZE = 256;
+
+    private final char[][] sets;
+    private final int[] shift = new int[TABLE_SIZE];
+
+    /*
+     * the shift of every char from TABLE_SIZE up.
+     */
+    private final int highShift;
+
+    private Literal(List<CharClass> ccs) {
+        final int m = ccs.size();
+        assert m > 0;
+        sets = new char[m][];
+        for (int j = 0; j < m; ++j) sets[j] = charsOf(ccs.get(j));
+        Arrays.fill(shift, m);
+        int highShift = m;
+        for (int j = 0; j < m - 1; ++j) {
+            for (char c : sets[j]) {
+                if (c < TABLE_SIZE) shift[c] = m - 1 - j;
+                else highShift = m - 1 - j;
+            }
+        }
+        this.highShift = highShift;
+    }
+
+    private static char[] charsOf(CharClass cc) {
+        char[] chars = new char[sizeOf(cc)];
+        int n = 0;
+        for (int i = 0; i < cc.nIntervals(); ++i) {
+            CharClass.Interval iv = cc.interval(i);
+            for (int c = iv.begin; c < iv.end; ++c) chars[n++] = (char) c;
+        }
+        return chars;
+    }
+
+    private static int sizeOf(CharClass cc) {
+        int size = 0;
+        for (int i = 0; i < cc.nIntervals(); ++i) {
+            CharClass.Interval iv = cc.interval(i);
+            size += iv.end - iv.begin;
+        }
+        return size;
+    }
+
+    int length() {
+        return sets.length;
+    }
+
+    /**
+     * @return the first index from <code>from</code> at which the Literal
+     * occurs in <code>csq</code>, ending by <code>to</code>; or -1.
+     */
+    int indexIn(CharSequence csq, int from, int to) {
+        final char[][] sets = this.sets;
+        final int last = sets.length - 1;
+        for (int i = from; i + last < to; ) {
+            char c = csq.charAt(i + last);
+            int j = last;
+            while (j >= 0 && contains(sets[j], j == last ? c : csq.charAt(i + j))) {
+                --j;
+            }
+            if (j < 0) return i;
+            i += c < TABLE_SIZE ? shift[c] : highShift;
+        }
+        return -1;
+    }
+
+    private static boolean contains(char[] set, char c) {
+        for (char s : set) if (s == c) return true;
+        return false;
+    }
+
+    /**
+     * @return the longest Literal every match of <code>root</code> begins
+     * with, or null if there is none.
+     */
+    static Literal prefixOf(Node root) {
+        Prefix prefix = new PrefixVisitor().prefixOf(root);
+        return prefix.ccs.isEmpty() ? null : new Literal(prefix.ccs);
+    }
+
+    /*
+     * the positions a match of a Node begins with; exact if they are the
+     * whole of every match, so that the Node's successor may carry on.
+     */
+    private static final class Prefix {
+
+        final List<CharClass> ccs;
+        final boolean exact;
+
+        Prefix(List<CharClass> ccs, boolean exact) {
+            this.ccs = ccs;
+            this.exact = exact;
+        }
+    }
+
+    private static final class PrefixVisitor extends AST.Visitor {
+
+        private final Stack<Prefix> kids = new Stack<Prefix>();
+
+        PrefixVisitor() {
+            super(TraversalOrder.BOTTOM_UP);
+        }
+
+        Prefix prefixOf(Node root) {
+            visit(root);
+            assert kids.size() == 1;
+            return kids.pop();
+        }
+
+        /*
+         * boundaries match no char, so are skipped over.
+         */
+        @Override
+        protected void visit(Terminal node) {
+            List<CharClass> ccs = new ArrayList<CharClass>();
+            if (node.cc.isSpecial()) {
+                kids.push(new Prefix(ccs, true));
+            } else if (sizeOf(node.cc) <= MAX_SET_SIZE) {
+                ccs.add(node.cc);
+                kids.push(new Prefix(ccs, true));
+            } else {
+                kids.push(new Prefix(ccs, false));
+            }
+        }
+        @Override
+        protected void visit(Cat node) {
+            Prefix second = kids.pop();
+            Prefix first = kids.pop();
+            if (!first.exact) {
+                kids.push(first);
+                return;
+            }
+            List<CharClass> ccs = new ArrayList<CharClass>(first.ccs);
+            ccs.addAll(second.ccs);
+            kids.push(new Prefix(ccs, second.exact));
+        }
+
+        /*
+         * position by position, either alternative's chars.
+         */
+        @Override
+        protected void visit(Alt node) {
+            Prefix second = kids.pop();
+            Prefix first = kids.pop();
+            int n = Math.min(first.ccs.size(), second.ccs.size());
+            List<CharClass> ccs = new ArrayList<CharClass>();
+            for (int j = 0; j < n; ++j) {
+                CharClass cc = first.ccs.get(j).union(second.ccs.get(j));
+                if (sizeOf(cc) > MAX_SET_SIZE) break;
+                ccs.add(cc);
+            }
+            kids.push(new Prefix(ccs, first.exact && second.exact
+                && ccs.size() == first.ccs.size()
+                && ccs.size() == second.ccs.size()));
+        }
+        @Override
+        protected void visit(Star node) {
+            kids.pop();
+            kids.push(new Prefix(new ArrayList<CharClass>(), false));
+        }
+        @Override
+        protected void visit(Question node) {
+            kids.pop();
+            kids.push(new Prefix(new ArrayList<CharClass>(), false));
+        }
+        @Override
+        protected void visit(Plus node) {
+            kids.push(new Prefix(kids.pop().ccs, false));
+        }
+        @Override
+        protected void visit(CG node) {
+            // the child is already on the stack
+        }
+    }
+
+    /**
+     * @return the rarest Literal every match of <code>root</code> contains
+     * somewhere, or null if there is none.
+     */
+    static Literal factorOf(Node root) {
+        Facts facts = new FactorVisitor().factsOf(root);
+        List<CharClass> best = null;
+        double bestRarity = 0;
+        for (List<CharClass> ccs : facts.factors) {
+            double rarity = rarityOf(ccs);
+            if (rarity > bestRarity) {
+                best = ccs;
+                bestRarity = rarity;
+            }
+        }
+        return best == null ? null : new Literal(best);
+    }
+
+    /*
+     * a rough guess at how seldom a sequence of positions occurs in text:
+     * the sum of -log of each position's odds, where a position's odds are
+     * those of its chars, by kind.
+     */
+    private static double rarityOf(List<CharClass> ccs) {
+        double rarity = 0;
+        for (CharClass cc : ccs) {
+            double odds = 0;
+            for (char c : charsOf(cc)) {
+                if (c == ' ') odds += 0.15;
+                else if (c >= 'a' && c <= 'z') odds += 0.03;
+                else if (c >= '0' && c <= '9') odds += 0.02;
+                else if (c >= 'A' && c <= 'Z') odds += 0.01;
+                else if (c < 128) odds += 0.005;
+                else odds += 0.002;
+            }
+            rarity -= Math.log(Math.min(odds, 1));
+        }
+        return rarity;
+    }
+
+    /*
+     * what is known of the matches of a Node: exact if they are all the
+     * one sequence of positions (else null); the positions every match
+     * begins and ends with; and sequences every match contains.
+     */
+    private static final class Facts {
+
+        final List<CharClass> exact;
+        final List<CharClass> prefix;
+        final List<CharClass> suffix;
+        final List<List<CharClass>> factors = new ArrayList<List<CharClass>>();
+
+        Facts(List<CharClass> exact) {
+            this(exact, exact, exact);
+        }
+
+        Facts(List<CharClass> exact, List<CharClass> prefix, List<CharClass> suffix) {
+            this.exact = exact;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            addFactor(prefix);
+            addFactor(suffix);
+        }
+
+        void addFactor(List<CharClass> ccs) {
+            if (!ccs.isEmpty() && !factors.contains(ccs)) factors.add(ccs);
+        }
+
+        void addFactors(List<List<CharClass>> ccss) {
+            for (List<CharClass> ccs : ccss) addFactor(ccs);
+        }
+    }
+
+    private static List<CharClass> none() {
+        return new ArrayList<CharClass>();
+    }
+
+    private static List<CharClass> concat(List<CharClass> first, List<CharClass> second) {
+        List<CharClass> ccs = new ArrayList<CharClass>(first);
+        ccs.addAll(second);
+        return ccs;
+    }
+
+    /*
+     * position by position, either's chars, for as long as that stays a
+     * Literal; from the front or, if fromEnd, from the back.
+     */
+    private static List<CharClass> union(List<CharClass> first, List<CharClass> second, boolean fromEnd) {
+        int n = Math.min(first.size(), second.size());
+        List<CharClass> ccs = new ArrayList<CharClass>();
+        for (int j = 0; j < n; ++j) {
+            CharClass cc = fromEnd 
+                ? first.get(first.size() - 1 - j).union(second.get(second.size() - 1 - j))
+                : first.get(j).union(second.get(j));
+            if (sizeOf(cc) > MAX_SET_SIZE) break;
+            ccs.add(cc);
+        }
+        if (fromEnd) Collections.reverse(ccs);
+        return ccs;
+    }
+
+    private static final class FactorVisitor extends AST.Visitor {
+
+        private final Stack<Facts> kids = new Stack<Facts>();
+
+        FactorVisitor() {
+            super(TraversalOrder.BOTTOM_UP);
+        }
+
+        Facts factsOf(Node root) {
+            visit(root);
+            assert kids.size() == 1;
+            return kids.pop();
+        }
+
+        @Override
+        protected void visit(Terminal node) {
+            List<CharClass> ccs = none();
+            if (node.cc.isSpecial()) {
+                kids.push(new Facts(ccs));
+            } else if (sizeOf(node.cc) <= MAX_SET_SIZE) {
+                ccs.add(node.cc);
+                kids.push(new Facts(ccs));
+            } else {
+                kids.push(new Facts(null, ccs, ccs));
+            }
+        }
+
+        /*
+         * the first's suffix runs straight into the second's prefix.
+         */
+        @Override
+        protected void visit(Cat node) {
+            Facts second = kids.pop();
+            Facts first = kids.pop();
+            Facts facts = first.exact != null && second.exact != null
+                ? new Facts(concat(first.exact, second.exact))
+                : new Facts(null,
+                    first.exact != null ? concat(first.exact, second.prefix) : first.prefix,
+                    second.exact != null ? concat(first.suffix, second.exact) : second.suffix);
+            facts.addFactors(first.factors);
+            facts.addFactors(second.factors);
+            facts.addFactor(concat(first.suffix, second.prefix));
+            kids.push(facts);
+        }
+
+        /*
+         * only what both alternatives have in common.
+         */
+        @Override
+        protected void visit(Alt node) {
+            Facts second = kids.pop();
+            Facts first = kids.pop();
+            List<CharClass> prefix = union(first.prefix, second.prefix, false);
+            Facts facts;
+            if (first.exact != null && second.exact != null
+                    && first.exact.size() == second.exact.size()
+                    && prefix.size() == first.exact.size()) {
+                facts = new Facts(prefix);
+            } else {
+                facts = new Facts(null, prefix, union(first.suffix, second.suffix, true));
+            }
+            for (List<CharClass> ccs : first.factors) {
+                if (second.factors.contains(ccs)) facts.addFactor(ccs);
+            }
+            kids.push(facts);
+        }
+        @Override
+        protected void visit(Star node) {
+            kids.pop();
+            kids.push(new Facts(null, none(), none()));
+        }
+        @Override
+        protected void visit(Question node) {
+            kids.pop();
+            kids.push(new Facts(null, none(), none()));
+        }
+        @Override
+        protected void visit(Plus node) {
+            Facts child = kids.pop();
+            Facts facts = new Facts(null, child.prefix, child.suffix);
+            facts.addFactors(child.factors);
+            kids.push(facts);
+        }
+        @Override
+        protected void visit(CG node) {
+            // the child is already on the stack
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Literal && Arrays.deepEquals(sets, ((Literal) o).sets);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(sets);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (char[] set : sets) {
+            if (set.length == 1) {
+                sb.append(set[0]);
+            } else {
+                sb.append('[').append(set).append(']');
+            }
+        }
+        return sb.toString();
+    }
+}
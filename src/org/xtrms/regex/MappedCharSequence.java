@@ -0,0 +1,99 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A window on a file of single-byte chars (ISO-8859-1), memory-mapped: each
+ * byte is its char, read in place, with no decoding into a buffer. The
+ * input of a {@link StreamMatcher} over such a file, which
+ * {@linkplain #slide(int) slides} the window on in place of reading more
+ * input.
+ */
+final class MappedCharSequence implements CharSequence {
+
+    /**
+     * The initial window size, in chars. Not <code>final</code>, in order to
+     * facilitate testing.
+     */
+    static int WINDOW_INIT = 1 << 26;
+
+    private final FileChannel fc;
+    private long size = -1;
+
+    /*
+     * the file offset of index 0, and the bytes mapped from there.
+     */
+    private long base;
+    private ByteBuffer bb = ByteBuffer.allocate(0);
+    private int window = WINDOW_INIT;
+
+    MappedCharSequence(FileChannel fc) {
+        this.fc = fc;
+    }
+
+    /**
+     * Maps a new window, which begins at index <code>from</code> of the
+     * current one and extends as far past its end as the window size allows
+     * - the size doubling if the chars kept would fill it.
+     *
+     * @return the number of chars past the end of the current window, or -1
+     *         if it already reached the end of the file - in which case
+     *         the window only loses the chars before <code>from</code>.
+     * @throws IllegalStateException
+     *             if the chars kept could not fit any window.
+     */
+    int slide(int from) throws IOException {
+        if (size < 0) size = fc.size();
+        long end = base + bb.limit();
+        if (end == size) {
+            bb.position(from);
+            bb = bb.slice();
+            base += from;
+            return -1;
+        }
+        while (end - (base + from) >= window) {
+            if (window == Integer.MAX_VALUE) {
+                throw new IllegalStateException("max window size exceeded");
+            }
+            window = (int) Math.min(2L * window, Integer.MAX_VALUE);
+        }
+        base += from;
+        bb = fc.map(FileChannel.MapMode.READ_ONLY, base, Math.min(window, size - base));
+        if (base + bb.limit() == size) fc.close();
+        return (int) (base + bb.limit() - end);
+    }
+
+    /**
+     * @return the file offset of index 0.
+     */
+    long base() {
+        return base;
+    }
+
+    void close() throws IOException {
+        fc.close();
+    }
+
+    public int length() {
+        return bb.limit();
+    }
+
+    public char charAt(int index) {
+        return (char) (bb.get(index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int j = 0; j < chars.length; ++j) chars[j] = charAt(start + j);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+}
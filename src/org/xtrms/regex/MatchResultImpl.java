@@ -40,6 +40,46 @@ class MatchResultImpl implements MatchResult {
         }
     }
     
+    /**
+     * A MatchResult of a {@link Matcher} which is reused, match after match:
+     * it copies the offsets, but no chars, until a group is asked for.
+     */
+    static final class Flyweight implements MatchResult {
+        private CharSequence csq;
+        private int[] a = new int[0];
+        private Flyweight() {
+        }
+        private void copyFrom(AbstractMatcher m) {
+            csq = m.csq;
+            if (a.length != m.cga.length) a = new int[m.cga.length];
+            for (int i = 0; i < a.length; ++i) {
+                a[i] = m.cga.a[i] == -1 ? -1 : m.start + m.cga.a[i];
+            }
+        }
+        public int start() {
+            return a[0];
+        }
+        public int start(int group) {
+            return a[group << 1];
+        }
+        public int end() {
+            return a[1];
+        }
+        public int end(int group) {
+            return a[(group << 1) + 1];
+        }
+        public String group() {
+            return group(0);
+        }
+        public String group(int group) {
+            int start = start(group);
+            return start == -1 ? null : csq.subSequence(start, end(group)).toString();
+        }
+        public int groupCount() {
+            return (a.length >> 1) - 1;
+        }
+    }
+    
     private static final MatchResult bogusMR = new MatchResult() {
 
         public int end() {
@@ -92,6 +132,17 @@ class MatchResultImpl implements MatchResult {
         }
     }
 
+    /**
+     * @return <code>reuse</code>, if a {@link Flyweight}, else a new one,
+     *         now a copy of the current match of <code>m</code>.
+     */
+    static MatchResult newMatchResult(AbstractMatcher m, MatchResult reuse) {
+        m.checkMatch();
+        Flyweight fw = reuse instanceof Flyweight ? (Flyweight) reuse : new Flyweight();
+        fw.copyFrom(m);
+        return fw;
+    }
+
     final CGA cga;
     final String[] groups;
     /**
@@ -0,0 +1,130 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.regex.MatchResult;
+
+/**
+ * The matches of a <code>find()</code> loop over a whole input, as a
+ * {@link Spliterator} which splits the input for a parallel stream - with
+ * the same matches, in the same order, as the loop finds.
+ * <p>
+ * A split must fall where the loop is known to be. With matches at most
+ * <code>L</code> chars long, the loop resumes its search for the first match
+ * at or past the middle <code>mid</code> of a range from somewhere in
+ * <code>[mid, mid + L]</code>; the matches found from each of those places
+ * soon run into one another, most often at the first. The range splits at
+ * the first match common to all, which then begins the second half. Where
+ * matches are unbounded, or the loop does not soon resynchronize (for
+ * <code>aa</code> over a run of <code>a</code>s, say), the range is not
+ * split.
+ */
+final class MatchSpliterator implements Spliterator<MatchResult> {
+
+    /**
+     * The smallest range worth splitting in two. Not <code>final</code>, in
+     * order to facilitate testing.
+     */
+    static int SPLIT_MIN = 1 << 14;
+
+    private final Pattern pattern;
+    private final CharSequence csq;
+    private Matcher m = null;
+
+    /*
+     * where the find loop stands: its next find() is from at, or, once
+     * started, from the previous match; it stops at the first match from
+     * to on, which the next range holds.
+     */
+    private int at;
+    private final int to;
+    private boolean started = false;
+    private boolean done = false;
+
+    MatchSpliterator(Pattern pattern, CharSequence csq) {
+        this(pattern, csq, 0, Integer.MAX_VALUE);
+    }
+
+    private MatchSpliterator(Pattern pattern, CharSequence csq, int at, int to) {
+        this.pattern = pattern;
+        this.csq = csq;
+        this.at = at;
+        this.to = to;
+    }
+
+    private Matcher matcher() {
+        if (m == null) m = pattern.matcher(csq);
+        return m;
+    }
+
+    public boolean tryAdvance(Consumer<? super MatchResult> action) {
+        if (done) return false;
+        Matcher m = matcher();
+        if (!(started ? m.find() : m.find(at)) || m.start() >= to) {
+            done = true;
+            return false;
+        }
+        started = true;
+        at = next(m);
+        action.accept(m.toMatchResult());
+        return true;
+    }
+
+    /*
+     * where the find loop resumes after the current match.
+     */
+    private int next(Matcher m) {
+        return m.end() > m.start() ? m.end() : m.end() + 1;
+    }
+
+    public Spliterator<MatchResult> trySplit() {
+        int length = pattern.resyncLength;
+        int end = Math.min(to, csq.length());
+        if (done || length < 0 || end - at < SPLIT_MIN) return null;
+        int mid = at + (end - at) / 2;
+        int sync = sync(mid, Math.min(mid + length, csq.length()), mid + (end - mid) / 2);
+        /*
+         * the search for the sync ran the Matcher elsewhere.
+         */
+        started = false;
+        if (sync < 0) return null;
+        MatchSpliterator prefix = new MatchSpliterator(pattern, csq, at, sync);
+        at = sync;
+        return prefix;
+    }
+
+    /**
+     * @return the start of the first match which the find loop reaches from
+     *         any of <code>[lo, hi]</code>, if before <code>limit</code>;
+     *         or -1.
+     */
+    private int sync(int lo, int hi, int limit) {
+        Matcher m = matcher();
+        TreeSet<Integer> froms = new TreeSet<Integer>();
+        for (int p = lo; p <= hi; ++p) froms.add(p);
+        while (true) {
+            int p = froms.first();
+            if (p > csq.length() || !m.find(p) || m.start() >= limit) return -1;
+            if (froms.last() <= m.start()) return m.start();
+            froms.headSet(m.start(), true).clear();
+            froms.add(next(m));
+        }
+    }
+
+    public long estimateSize() {
+        return done ? 0 : Math.max(0, Math.min(to, csq.length()) - at);
+    }
+
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    @Override
+    public String toString() {
+        return "MatchSpliterator: pattern=" + pattern + ", [" + at + ", "
+            + (to == Integer.MAX_VALUE ? "end" : String.valueOf(to)) + ")";
+    }
+}
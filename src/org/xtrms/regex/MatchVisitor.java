@@ -0,0 +1,31 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+/**
+ * A callback for each match of a find loop, as
+ * {@link Matcher#forEachMatch(MatchVisitor)} and
+ * {@link StreamMatcher#forEachMatch(MatchVisitor)} run it: the match is
+ * reported by its offsets alone, with no <code>MatchResult</code> and no
+ * <code>String</code> per match.
+ */
+public interface MatchVisitor {
+
+    /**
+     * @param csq
+     *            the chars the offsets index: the input of a
+     *            <code>Matcher</code>, or the buffer of a
+     *            <code>StreamMatcher</code>, valid only during the call.
+     * @param start
+     *            the start of the match.
+     * @param end
+     *            the end of the match.
+     * @param groups
+     *            the start and end of each group, group <code>g</code> at
+     *            <code>2g</code> and <code>2g+1</code>, or -1 for a group
+     *            which did not participate; the array is reused for each
+     *            match.
+     * @return true to go on to the next match, false to stop.
+     */
+    boolean visit(CharSequence csq, int start, int end, int[] groups);
+}
@@ -73,6 +73,8 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
         matchEnd = 0; // used to evaluate \G anchor condition
         zedBump = 0; // used to advance find() on zero length match
         this.csq = csq;
+        factorFrom = Integer.MAX_VALUE;
+        selectEngine(csq.length());
         return this;
     }
 
@@ -80,7 +82,7 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
         end = start = regionStart;
         evalProlog(false);
         assert start == end;
-        engine.eval(this);
+        eval(engine);
         evalEpilog();
         return match;
     }
@@ -96,9 +98,13 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
             match = false;
             return found = false;
         }
+        if (!skipToFactor()) {
+            return found = false;
+        }
         if (engineHasFindLoop) {
+            skipToPrefix();
             evalProlog(true);
-            engine.eval(this);
+            eval(engine);
             if (found = match = cga.match(0)) {
                 end = matchEnd = start + cga.end(0);
                 zedBump = (cga.end(0) - cga.start(0)) == 0 ? 1 : 0;
@@ -108,9 +114,19 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
             }
             return found;
         } else {
+            /*
+             * the end of input, once hit by an attempt, stays hit: the last
+             * attempt, at regionEnd, often fails without reading a char.
+             */
+            boolean hit = false;
             while (end <= regionEnd) {
+                if (!skipToFactor()) {
+                    return found = false;
+                }
+                skipToPrefix();
                 evalProlog(false);
-                engine.eval(this);
+                eval(engine);
+                hit = hitEnd |= hit;
                 if (match = cga.match(0)) {
                     end = matchEnd = start + cga.end(0);
                     zedBump = (end == start) ? 1 : 0;
@@ -124,12 +140,78 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
         }
     }
 
+    /*
+     * where the Pattern's factor first occurs from factorFrom on, or -1;
+     * stale once start has passed it, or when factorFrom is MAX_VALUE.
+     */
+    private int factorFrom;
+    private int factorAt;
+
+    /**
+     * Moves <code>start</code> ahead to the first place a match containing
+     * the next occurrence of the Pattern's factor could begin.
+     * 
+     * @return false, with the match cleared, if the factor does not occur
+     * in the rest of the region, so that there is nothing to find.
+     */
+    private boolean skipToFactor() {
+        Literal factor = pattern.factor;
+        if (factor == null) return true;
+        if (factorFrom > start || (factorAt >= 0 && factorAt < start)) {
+            factorFrom = start;
+            factorAt = factor.indexIn(csq, start, regionEnd);
+        }
+        if (factorAt < 0) {
+            start = end = regionEnd;
+            cga.clear(0);
+            match = false;
+            hitEnd = true;
+            requireEnd = false;
+            return false;
+        }
+        if (pattern.maxMatchLength >= 0) {
+            start = end = Math.max(start, 
+                    factorAt + factor.length() - pattern.maxMatchLength);
+        }
+        return true;
+    }
+
     public boolean find(int start) {
         reset();
         matchEnd = start;
         return find();
     }
 
+    /**
+     * Runs the rest of the <code>find()</code> loop, passing each match to
+     * <code>v</code> by its offsets - which, with an engine which allocates
+     * nothing per match, makes no garbage.
+     * 
+     * @return the number of matches visited.
+     */
+    public int forEachMatch(MatchVisitor v) {
+        int n = 0;
+        while (find()) {
+            ++n;
+            if (!visit(v)) break;
+        }
+        return n;
+    }
+
+    /**
+     * As {@link #toMatchResult()}, but reusing <code>reuse</code>, if it
+     * came from an earlier call of this method, in place of a new
+     * MatchResult: its offsets are copied, while its groups are only
+     * copied from the input when asked for - which must therefore not
+     * change meanwhile.
+     * 
+     * @throws IllegalStateException
+     *             if there is no match.
+     */
+    public MatchResult toMatchResult(MatchResult reuse) {
+        return MatchResultImpl.newMatchResult(this, reuse);
+    }
+
     public boolean matches() {
         return lookingAt() && end == regionEnd;
     }
@@ -206,7 +288,10 @@ public final class Matcher extends AbstractMatcher implements MatchResult {
      */
     @Override
     public Matcher usePattern(Pattern newPattern) {
-        return (Matcher) super.usePattern(newPattern);
+        super.usePattern(newPattern);
+        factorFrom = Integer.MAX_VALUE;
+        selectEngine(csq.length());
+        return this;
     }
 
     @Override
@@ -323,6 +323,7 @@ final class NFA {
      */
 
     final Pattern pattern;
+    final Node root;
     final int tncg;
     final State loop;
     final List<State> alpha;
@@ -347,12 +348,15 @@ final class NFA {
     NFA(final Pattern pattern, final Node root) { 
 
         this.pattern = pattern;
+        this.root = root;
         final Node augmentedRoot = cat(captureGroup(0, root), OMEGA_POUND);
         
         // workaround for formatter syntax issue - toTreeString output was
         // triggering parameter formatting for Terminal(0)
         logger.log(level, "augmentedRoot: ", augmentedRoot);
-        logger.log(level, "augmentedRootTree: " + augmentedRoot.toTreeString());
+        if (logger.isLoggable(level)) {
+            logger.log(level, "augmentedRootTree: " + augmentedRoot.toTreeString());
+        }
 
         tncg = pattern.ncg + 1;     // includes cg[0] - the complete match
 
@@ -653,7 +657,9 @@ final class NFA {
 
         }.npos();
 
-        logger.log(level, "nodeAttr: " + nodeAttr.toString(), nodeAttr);
+        if (logger.isLoggable(level)) {
+            logger.log(level, "nodeAttr: " + nodeAttr.toString(), nodeAttr);
+        }
         
         /*
          * based on convention that the augmentation is _omega_ _accept_.
@@ -959,6 +965,19 @@ final class NFA {
         return new BreadthFirstVisitor<State, Arc>(){}.start(alpha).black.size();
     }
     
+    private Alphabet alphabet;
+
+    /**
+     * @return the {@link Alphabet} of this NFA, computed on first use. Racy
+     * but benign: an Alphabet is immutable, and computing it twice is
+     * merely wasteful.
+     */
+    Alphabet alphabet() {
+        Alphabet a = alphabet;
+        if (a == null) alphabet = a = new Alphabet(this);
+        return a;
+    }
+
     private static List<State> statesFrom(List<State> alpha) {
         return Collections.unmodifiableList(topologicalSort(alpha));
     }
@@ -0,0 +1,272 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+import static org.xtrms.regex.Pattern.Feature.CAPTURING_GROUPS;
+import static org.xtrms.regex.Pattern.Feature.DYNAMIC_BOUNDARIES;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xtrms.regex.AbstractMatcher.DBC;
+
+/**
+ * Engine for one-pass patterns: those where, at each position, at most one
+ * strand of the NFA can go on. Such as <code>(\d+)-(\d+)</code>, where the
+ * next char always tells which NFA State it belongs to.
+ * <p>
+ * With a single strand, there is a single set of capture groups, and the
+ * tags of each arc followed are written straight into it. Strands which
+ * only reach <code>accept</code> - the end of a match - are allowed
+ * alongside, since they do not go on.
+ * <p>
+ * The engine runs anchored; the <code>Matcher</code> bumps along.
+ */
+final class OnePassEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        CAPTURING_GROUPS, DYNAMIC_BOUNDARIES, LOOP_DBC, LEFTMOST_FIRST,
+        RELUCTANT_QUANTIFIERS);
+
+    private static final DBC[] NO_DBCS = new DBC[0];
+
+    private static final class Arc {
+
+        /**
+         * The Node of the next State, or <code>null</code> if the next
+         * State only leads to <code>accept</code>.
+         */
+        Node next;
+        final int[] tags;
+        final DBC[] dbcs;
+
+        /**
+         * The tags of the arc on to <code>accept</code>, if next is
+         * <code>null</code>.
+         */
+        final int[] acceptTags;
+
+        Arc(NFA nfa, NFA.Arc arc) {
+            tags = tagsOf(arc);
+            dbcs = arc.dbcs.toArray(NO_DBCS);
+            acceptTags = isFinal(nfa, arc.ns)
+                ? tagsOf(arc.ns.arcs().iterator().next()) : null;
+        }
+    }
+
+    /*
+     * the strands which a strand of an NFA State - or of the initial States
+     * containing a given init symbol - branches into, by symbol class of
+     * the next char.
+     */
+    private static final class Node {
+
+        final Arc[][] arcs;
+        final boolean stranded;
+        final boolean containsOmega;
+
+        Node(NFA nfa, List<NFA.Arc> nfaArcs, Alphabet alphabet,
+                Map<NFA.Arc, Arc> arcMap) {
+            boolean stranded = false;
+            boolean containsOmega = false;
+            for (NFA.Arc arc : nfaArcs) {
+                if (arc.ns == nfa.omega) containsOmega = true;
+                else stranded = true;
+            }
+            this.stranded = stranded;
+            this.containsOmega = containsOmega;
+            arcs = new Arc[alphabet.size()][];
+            List<Arc> list = new ArrayList<Arc>();
+            for (int k = 0; k < arcs.length; ++k) {
+                list.clear();
+                if (k > 0) {
+                    int c = alphabet.representative(k);
+                    for (NFA.Arc arc : nfaArcs) {
+                        if (arc.ns.cc.contains(c)) list.add(arcMap.get(arc));
+                    }
+                }
+                arcs[k] = list.toArray(new Arc[list.size()]);
+            }
+        }
+    }
+
+    private final Alphabet alphabet;
+    private final int tncg;
+    private final boolean leftmostFirst;
+
+    /*
+     * by class of the init symbol.
+     */
+    private final Node[] init;
+
+    OnePassEngine(EngineStyle style, NFA nfa) {
+        super(style);
+        if (!isOnePass(nfa)) {
+            throw new EngineStyle.ConstructionException(
+                "pattern is not one-pass: " + nfa.pattern);
+        }
+        alphabet = nfa.alphabet();
+        tncg = nfa.tncg;
+        leftmostFirst = !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST);
+
+        Map<NFA.Arc, Arc> arcMap = new IdentityHashMap<NFA.Arc, Arc>();
+        Map<NFA.State, Node> nodes = new IdentityHashMap<NFA.State, Node>();
+        for (NFA.State state : nfa.states()) {
+            if (nfa.alpha.contains(state) || state == nfa.loop
+                    || state == nfa.accept || isFinal(nfa, state)) continue;
+            List<NFA.Arc> arcs = arcsOf(nfa, state);
+            for (NFA.Arc arc : arcs) arcMap.put(arc, new Arc(nfa, arc));
+            nodes.put(state, new Node(nfa, arcs, alphabet, arcMap));
+        }
+        init = new Node[alphabet.size()];
+        for (int k = 1; k < init.length; ++k) {
+            List<NFA.Arc> arcs = initArcsOf(nfa, alphabet.representative(k));
+            if (arcs.isEmpty()) continue;
+            for (NFA.Arc arc : arcs) {
+                if (!arcMap.containsKey(arc)) arcMap.put(arc, new Arc(nfa, arc));
+            }
+            init[k] = new Node(nfa, arcs, alphabet, arcMap);
+        }
+        for (Map.Entry<NFA.Arc, Arc> e : arcMap.entrySet()) {
+            e.getValue().next = nodes.get(e.getKey().ns);
+            assert e.getValue().next != null
+                || e.getValue().acceptTags != null : e.getKey();
+        }
+    }
+
+    /**
+     * A pattern is one-pass if, from any strand, at most one of the strands
+     * it branches into can read any given char - not counting those which
+     * only reach <code>accept</code>. The init symbol is read by all the
+     * initial States which contain it, as if by a single strand.
+     *
+     * @return true if <code>nfa</code> is one-pass.
+     */
+    static boolean isOnePass(NFA nfa) {
+        Alphabet alphabet = nfa.alphabet();
+        for (int k = 1; k < alphabet.size(); ++k) {
+            int c = alphabet.representative(k);
+            if (!isOnePass(nfa, initArcsOf(nfa, c), alphabet)) return false;
+        }
+        for (NFA.State state : nfa.states()) {
+            if (nfa.alpha.contains(state) || state == nfa.loop
+                    || state == nfa.accept || isFinal(nfa, state)) continue;
+            if (!isOnePass(nfa, arcsOf(nfa, state), alphabet)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isOnePass(NFA nfa, List<NFA.Arc> arcs,
+            Alphabet alphabet) {
+        for (int k = 1; k < alphabet.size(); ++k) {
+            int c = alphabet.representative(k);
+            int n = 0;
+            for (NFA.Arc arc : arcs) {
+                if (!isFinal(nfa, arc.ns) && arc.ns.cc.contains(c)) ++n;
+            }
+            if (n > 1) return false;
+        }
+        return true;
+    }
+
+    /*
+     * true if state only leads to accept: omega, or a static check
+     * standing in for it.
+     */
+    private static boolean isFinal(NFA nfa, NFA.State state) {
+        for (NFA.Arc arc : state.arcs()) {
+            if (arc.ns == nfa.accept) return true;
+        }
+        return false;
+    }
+
+    private static List<NFA.Arc> arcsOf(NFA nfa, NFA.State state) {
+        List<NFA.Arc> arcs = new ArrayList<NFA.Arc>();
+        for (NFA.Arc arc : state.arcs()) {
+            if (arc.ns != nfa.loop) arcs.add(arc);
+        }
+        return arcs;
+    }
+
+    /*
+     * the arcs of the initial States which contain c, in order. As in the
+     * NFAtableEngine, a State reached unconditionally is not reached again.
+     */
+    private static List<NFA.Arc> initArcsOf(NFA nfa, int c) {
+        List<NFA.Arc> arcs = new ArrayList<NFA.Arc>();
+        Set<NFA.State> seen = new HashSet<NFA.State>();
+        for (NFA.State state : nfa.alpha) {
+            if (!state.cc.contains(c)) continue;
+            for (NFA.Arc arc : arcsOf(nfa, state)) {
+                if (seen.contains(arc.ns)) continue;
+                arcs.add(arc);
+                if (arc.dbcs.isEmpty()) seen.add(arc.ns);
+            }
+        }
+        return arcs;
+    }
+
+    private static int[] tagsOf(NFA.Arc arc) {
+        int n = 0;
+        for (boolean tag : arc.tags) if (tag) ++n;
+        int[] tags = new int[n];
+        n = 0;
+        for (int t = 0; t < arc.tags.length; ++t) if (arc.tags[t]) tags[n++] = t;
+        return tags;
+    }
+
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        final Alphabet alphabet = this.alphabet;
+        final int[] cga = m.mls != null ? (int[]) m.mls
+                : (int[]) (m.mls = new int[2 * tncg]);
+        Arrays.fill(cga, -1);
+        int c = m.initStatus;
+        int len = 0;
+        Node node = init[alphabet.classOf(c)];
+        if (node == null) return;
+
+        while (true) {
+            c = m.nextChar();
+            ++len;
+            Arc next = null;
+            boolean accepted = false;
+            next_arc:
+            for (Arc arc : node.arcs[alphabet.classOf(c)]) {
+                for (DBC dbc : arc.dbcs) if (!dbc.check(m)) continue next_arc;
+                if (arc.next != null) {
+                    assert next == null;
+                    next = arc;
+                } else if (!accepted) {
+                    accepted = true;
+                    final int[] a = m.cga.a;
+                    System.arraycopy(cga, 0, a, 0, a.length);
+                    for (int t : arc.tags) a[t] = len - 1;
+                    for (int t : arc.acceptTags) a[t] = len;
+                    if (leftmostFirst) break;
+                }
+            }
+            if (next == null) break;
+            for (int t : next.tags) cga[t] = len - 1;
+            node = next.next;
+        }
+        m.hitEnd = c == EOF
+                && node.stranded;
+        m.requireEnd = c == EOF
+                && m.cga.match(0)
+                && m.cga.end(0) == len - 1
+                && !node.containsOmega;
+    }
+}
@@ -0,0 +1,182 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFAtableEngine.ACCEPT;
+import static org.xtrms.regex.DFAtableEngine.DEAD;
+import static org.xtrms.regex.DFAtableEngine.FLAG_BITS;
+import static org.xtrms.regex.Misc.EOF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * An anchored scan of a {@link DFAtableEngine.Table} over a large input, in
+ * parallel: the input is split into chunks, and each chunk but the first is
+ * run from every state of the DFA at once, to the mapping from the state it
+ * starts in to the state it ends in. Only the first chunk knows its start
+ * state; the mappings of the others then carry it through, one lookup per
+ * chunk.
+ * <p>
+ * The states run in lockstep as the distinct rows they are in, which are
+ * merged from time to time: most DFAs soon forget where they started, and
+ * the chunk then costs about what a single scan would.
+ */
+final class ParallelDFA {
+
+    /**
+     * The smallest chunk worth a task of its own. Not <code>final</code>, in
+     * order to facilitate testing.
+     */
+    static int CHUNK_MIN = 1 << 16;
+
+    /*
+     * chars between merges of the rows.
+     */
+    private static final int MERGE_INTERVAL = 64;
+
+    private final DFAtableEngine.Table t;
+    private final int nStates;
+
+    ParallelDFA(DFAtableEngine.Table t) {
+        this.t = t;
+        this.nStates = t.stranded.length;
+    }
+
+    /**
+     * @return true if the DFA, from <code>initStatus</code>, accepts all of
+     *         <code>csq</code> from <code>from</code> to <code>to</code> -
+     *         as <code>Matcher.matches()</code> would, with no groups.
+     */
+    boolean matches(final CharSequence csq, final int from, final int to,
+            int initStatus, ForkJoinPool pool) {
+        int nChunks = Math.min(4 * pool.getParallelism(), (to - from) / CHUNK_MIN);
+        int row = enter(t.table[t.alphabet.classOf(initStatus)]);
+        if (nChunks <= 1) return accepts(run(row, csq, from, to));
+
+        final int size = (to - from) / nChunks;
+        List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+        final int first = row;
+        tasks.add(new Callable<int[]>() {
+            public int[] call() {
+                return new int[] {run(first, csq, from, from + size)};
+            }
+        });
+        for (int k = 1; k < nChunks; ++k) {
+            final int begin = from + k * size;
+            final int end = k == nChunks - 1 ? to : begin + size;
+            tasks.add(new Callable<int[]>() {
+                public int[] call() {
+                    return mapping(csq, begin, end);
+                }
+            });
+        }
+        try {
+            List<Future<int[]>> results = pool.invokeAll(tasks);
+            row = results.get(0).get()[0];
+            for (int k = 1; k < nChunks && row != DEAD; ++k) {
+                row = results.get(k).get()[row / t.width];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return accepts(row);
+    }
+
+    /*
+     * the row an entry enters, or DEAD.
+     */
+    private static int enter(int entry) {
+        return entry == DEAD ? DEAD : entry >>> FLAG_BITS;
+    }
+
+    /*
+     * true if, from row, the end of input is where a match ends.
+     */
+    private boolean accepts(int row) {
+        if (row == DEAD) return false;
+        int entry = t.table[row + t.alphabet.classOf(EOF)];
+        return entry != DEAD && (entry & ACCEPT) != 0;
+    }
+
+    private int run(int row, CharSequence csq, int begin, int end) {
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        for (int j = begin; j < end && row != DEAD; ++j) {
+            row = enter(table[row + alphabet.classOf(csq.charAt(j))]);
+        }
+        return row;
+    }
+
+    /*
+     * by state number, the row it ends in over csq from begin to end.
+     */
+    private int[] mapping(CharSequence csq, int begin, int end) {
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        int[] live = new int[nStates];
+        int[] which = new int[nStates];
+        for (int s = 0; s < nStates; ++s) {
+            live[s] = s * t.width;
+            which[s] = s;
+        }
+        int nLive = nStates;
+        int[] merged = new int[nStates];
+        int[] index = new int[nStates];
+        Arrays.fill(merged, -1);
+        for (int j = begin; j < end && nLive > 0; ++j) {
+            int k = alphabet.classOf(csq.charAt(j));
+            for (int i = 0; i < nLive; ++i) {
+                if (live[i] != DEAD) live[i] = enter(table[live[i] + k]);
+            }
+            if ((j - begin) % MERGE_INTERVAL == MERGE_INTERVAL - 1 || j == end - 1) {
+                nLive = merge(live, nLive, which, merged, index);
+            }
+        }
+        int[] mapping = new int[nStates];
+        for (int s = 0; s < nStates; ++s) {
+            mapping[s] = which[s] >= 0 ? live[which[s]] : DEAD;
+        }
+        return mapping;
+    }
+
+    /*
+     * folds the duplicate rows of live into one, dropping DEAD - which the
+     * states whose row it was then map to through a negative index. merged,
+     * by state, is all -1 between calls.
+     */
+    private int merge(int[] live, int nLive, int[] which, int[] merged,
+            int[] index) {
+        int n = 0;
+        for (int i = 0; i < nLive; ++i) {
+            if (live[i] == DEAD) {
+                index[i] = -1;
+                continue;
+            }
+            int s = live[i] / t.width;
+            if (merged[s] < 0) {
+                merged[s] = n;
+                live[n++] = live[i];
+            }
+            index[i] = merged[s];
+        }
+        for (int s = 0; s < nStates; ++s) {
+            if (which[s] >= 0) which[s] = index[which[s]];
+        }
+        for (int i = 0; i < n; ++i) merged[live[i] / t.width] = -1;
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "parallel DFA of " + nStates + " states";
+    }
+}
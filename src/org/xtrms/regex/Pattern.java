@@ -11,8 +11,12 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.MatchResult;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.xtrms.regex.AST.Node;
 import org.xtrms.regex.EngineStyle.ConstructionException;
@@ -209,10 +213,20 @@ public final class Pattern {
      */
     public static final int X_STRIP_CG = flagMgr.next("X_STRIP_CG");
 
+    /**
+     * Also compiles the pattern into an automaton over the UTF-8 encoding of
+     * the input, for a {@link ByteMatcher} to run on raw bytes, with no
+     * decoding. Patterns with boundaries within a match, such as
+     * <code>a\Bb</code>, or with possessive quantifiers, cannot be compiled
+     * with this flag. This is a nonstandard flag.
+     */
+    public static final int X_UTF8 = flagMgr.next("X_UTF8");
+
     static final int FLAG_COUNT =
             flagMgr.setImplemented(
                 DOTALL | MULTILINE | UNIX_LINES | LITERAL | CASE_INSENSITIVE | UNICODE_CASE
-                        | X_LEFTMOST_LONGEST | X_FLAT_CG_NAMES | X_STRIP_CG).freezeAndCount();
+                        | X_LEFTMOST_LONGEST | X_FLAT_CG_NAMES | X_STRIP_CG | X_UTF8)
+                .freezeAndCount();
 
     final String regex;
     final int flags;
@@ -222,6 +236,60 @@ public final class Pattern {
     private final Set<Feature> requirements;
     final Engine engine;
 
+    /**
+     * The automaton over UTF-8 bytes, for {@link #X_UTF8}; else null.
+     */
+    final Utf8DFA utf8;
+
+    /**
+     * The Engine a <code>Matcher</code> uses instead of {@link #engine} for
+     * inputs which {@linkplain BacktrackEngine#fits(int) fit} it, or null.
+     */
+    final BacktrackEngine shortInputEngine;
+
+    /**
+     * The table DFA of the {@link #engine} - itself, or that of a
+     * {@link HybridEngine} - for the matchers which run it directly; or
+     * null.
+     */
+    final DFAtableEngine tableDFA;
+
+    /**
+     * The table DFA of the {@link #engine}, run in parallel by
+     * {@link #matches(CharSequence, ForkJoinPool)}; null if it has none.
+     */
+    private final ParallelDFA parallel;
+
+    /**
+     * The literal every match begins with, or null: <code>find()</code>
+     * skips to where it occurs before running the Engine.
+     */
+    final Literal prefix;
+
+    /**
+     * The rarest literal every match contains, unless it is the prefix, or
+     * null: <code>find()</code> fails at once where it does not occur.
+     */
+    final Literal factor;
+
+    /**
+     * The most chars a match may span, or -1 if there is no bound: a match
+     * contains the factor no further than this from where it begins.
+     */
+    final int maxMatchLength;
+
+    /**
+     * The maxMatchLength, as a {@link MatchSpliterator} splits by it; or -1
+     * where a <code>\G</code> ties each match to the end of the one before.
+     */
+    final int resyncLength;
+
+    /*
+     * the start flags on which the NFA can leave its init State at all:
+     * the union of the CharClasses of its first States.
+     */
+    private final CharClass startFlags;
+
     private Pattern(String regex, int flags, EngineStyle style, RegexParser.Result r) {
 
         flagMgr.check(flags);
@@ -236,6 +304,62 @@ public final class Pattern {
         NFA nfa = new NFA(this, r.root);
         this.requirements = nfa.requirements;
         this.engine = style.newEngine(nfa);
+        this.shortInputEngine = style.newShortInputEngine(nfa, engine);
+        Engine dfa = engine instanceof HybridEngine ? ((HybridEngine) engine).dfa() : engine;
+        this.tableDFA = dfa instanceof DFAtableEngine ? (DFAtableEngine) dfa : null;
+        this.parallel = tableDFA != null ? new ParallelDFA(tableDFA.table()) : null;
+        this.utf8 = (flags & X_UTF8) != 0 ? Utf8DFA.newUtf8DFA(nfa) : null;
+        this.prefix = Literal.prefixOf(r.root);
+        logger.log(level, "prefix: " + prefix);
+        Literal factor = Literal.factorOf(r.root);
+        this.factor = factor == null || factor.equals(prefix) ? null : factor;
+        this.maxMatchLength = AST.maxLength(r.root);
+        logger.log(level, "factor: " + this.factor + ", max length: " + maxMatchLength);
+        this.resyncLength = AST.anchorsAtMatch(r.root) ? -1 : maxMatchLength;
+        CharClass startFlags = CharClass.EMPTY;
+        for (NFA.State s : nfa.alpha) startFlags = startFlags.union(s.cc);
+        this.startFlags = startFlags;
+    }
+
+    /*
+     * a Pattern with no Engine, which only gives its NFA the regex, flags
+     * and groups.
+     */
+    private Pattern(String regex, int flags, RegexParser.Result r) {
+        flagMgr.check(flags);
+        this.regex = regex;
+        this.flags = flags;
+        this.ncg = r.ncg;
+        this.cgNames = r.cgNames;
+        this.style = null;
+        this.requirements = null;
+        this.engine = null;
+        this.shortInputEngine = null;
+        this.tableDFA = null;
+        this.parallel = null;
+        this.utf8 = null;
+        this.prefix = null;
+        this.factor = null;
+        this.maxMatchLength = -1;
+        this.resyncLength = -1;
+        this.startFlags = null;
+    }
+
+    /**
+     * @return true if a match can start where the start flags are
+     *         <code>initStatus</code>, as far as they tell.
+     */
+    boolean startsOn(int initStatus) {
+        return startFlags.contains(initStatus);
+    }
+
+    /**
+     * @return the NFA of <code>regex</code>, from a single parse, for an
+     *         automaton built outside a Pattern: no Engine is built.
+     */
+    static NFA NFAfor(String regex, int flags, Expression... exprs) {
+        RegexParser.Result r = new RegexParser().parse(regex, flags, exprs);
+        return new NFA(new Pattern(regex, flags, r), r.root);
     }
 
     public static Pattern compile(String regex, Expression... exprs) {
@@ -322,6 +446,34 @@ public final class Pattern {
         return Pattern.compile(regex).matcher(input).matches();
     }
 
+    /**
+     * As <code>matcher(input).matches()</code>, with the scan of a large
+     * input split across the threads of <code>pool</code>, for a Pattern
+     * whose engine is a table DFA (possibly that of a
+     * {@link EngineStyle#HYBRID} engine); other Patterns simply run
+     * <code>matches()</code>. Only the outcome is reported: for the groups,
+     * run <code>matches()</code> once this returns true.
+     */
+    public boolean matches(CharSequence input, ForkJoinPool pool) {
+        Matcher m = matcher(input);
+        if (parallel == null) return m.matches();
+        m.evalProlog(false, 0);
+        return parallel.matches(input, 0, input.length(), m.initStatus, pool);
+    }
+
+    /**
+     * The matches of a <code>find()</code> loop over <code>input</code>, in
+     * order. A {@linkplain Stream#parallel() parallel} stream splits the
+     * input into ranges searched in parallel, with the same results, when
+     * the length of a match is bounded - there is no <code>*</code> or
+     * <code>+</code> - and there is no <code>\G</code>; otherwise the
+     * search is sequential. <code>input</code> must not change while the
+     * stream runs.
+     */
+    public Stream<MatchResult> results(CharSequence input) {
+        return StreamSupport.stream(new MatchSpliterator(this, input), false);
+    }
+
     public String pattern() {
         return toString();
     }
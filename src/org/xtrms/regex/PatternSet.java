@@ -0,0 +1,253 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xtrms.regex.Pattern.Feature;
+
+/**
+ * A set of {@link Pattern}s matched against an input all at once: the
+ * result of {@link #matches(CharSequence)} is the set of the ids - the
+ * indexes in the list compiled - of the Patterns which
+ * {@linkplain Matcher#find() find} a match somewhere in the input. Like
+ * Pattern, instances are immutable and thread safe.
+ * <p>
+ * The NFAs of the Patterns are run side by side as one union automaton, in
+ * a single scan of the input: a Pattern is in the result as soon as its
+ * <code>accept</code> State is reached, and its strands are dropped from
+ * then on. Where the union is small enough, it is determinized up front,
+ * each DFA state carrying the bitmap of the Patterns it accepts; otherwise
+ * it is simulated a set of NFA States at a time.
+ * <p>
+ * Patterns with {@linkplain Feature#DYNAMIC_BOUNDARIES dynamic boundaries}
+ * are left out of the union, and run their own <code>Matcher</code> over
+ * the input instead.
+ */
+public final class PatternSet {
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    private static final int MAX_STATE_COUNT = 10 * 1000;
+
+    private static final int INIT = Integer.MIN_VALUE | CharClass.LOOP_FLAG;
+
+    private final List<Pattern> patterns;
+
+    /*
+     * the ids of the Patterns outside the union.
+     */
+    private final int[] others;
+
+    /*
+     * the ids of the Patterns in the union, by their index in it.
+     */
+    private final int[] ids;
+    private final UnionNFA union;
+    private final Alphabet alphabet;
+
+    /*
+     * the DFA of the union, or null if it doesn't fit: a row of width
+     * alphabet.size() per state, and by state the ids it accepts. State 0
+     * is the initial one, and state 1 the empty set.
+     */
+    private final int[] table;
+    private final BitSet[] accepted;
+    private final int width;
+
+    private static final int DEAD = UnionNFA.DEAD;
+
+    private PatternSet(List<String> regexes, int flags, Expression... exprs) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        List<NFA> nfas = new ArrayList<NFA>();
+        List<Integer> ids = new ArrayList<Integer>();
+        List<Integer> others = new ArrayList<Integer>();
+        for (String regex : regexes) {
+            RegexParser.Result r = new RegexParser().parse(regex, flags, exprs);
+            Pattern p = Pattern.compile(regex, flags, exprs);
+            NFA nfa = new NFA(p, r.root);
+            if (UnionNFA.unites(nfa)) {
+                ids.add(patterns.size());
+                nfas.add(nfa);
+            } else {
+                others.add(patterns.size());
+            }
+            patterns.add(p);
+        }
+        this.patterns = Collections.unmodifiableList(patterns);
+        this.others = toArray(others);
+        this.ids = toArray(ids);
+
+        union = new UnionNFA(nfas);
+        alphabet = union.alphabet;
+        width = alphabet.size();
+
+        int[] table = null;
+        BitSet[] accepted = null;
+        try {
+            List<BitSet> dfaStates = new ArrayList<BitSet>();
+            table = union.determinize(true, MAX_STATE_COUNT, dfaStates);
+            accepted = new BitSet[dfaStates.size()];
+            for (int d = 0; d < accepted.length; ++d) {
+                accepted[d] = acceptedBy(dfaStates.get(d));
+            }
+            logger.log(level, "PatternSet DFA: " + dfaStates.size() + " states");
+        } catch (EngineStyle.ConstructionException e) {
+            logger.log(level, e.toString(), e);
+            table = null;
+            accepted = null;
+        }
+        this.table = table;
+        this.accepted = accepted;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; ++i) array[i] = list.get(i);
+        return array;
+    }
+
+    /*
+     * the ids of the Patterns whose accept State is in states, or null.
+     */
+    private BitSet acceptedBy(BitSet states) {
+        BitSet ids = null;
+        for (int j = 0; j < union.size(); ++j) {
+            if (union.accepts(states, j)) {
+                if (ids == null) ids = new BitSet();
+                ids.set(this.ids[j]);
+            }
+        }
+        return ids;
+    }
+
+    public static PatternSet compile(List<String> regexes, Expression... exprs) {
+        return compile(regexes, 0, exprs);
+    }
+
+    public static PatternSet compile(List<String> regexes, int flags, Expression... exprs) {
+        return new PatternSet(regexes, flags, exprs);
+    }
+
+    /**
+     * @return the number of Patterns in the set.
+     */
+    public int size() {
+        return patterns.size();
+    }
+
+    /**
+     * @param id
+     *            the index of the regex in the list compiled.
+     * @return the Pattern compiled from it.
+     */
+    public Pattern pattern(int id) {
+        return patterns.get(id);
+    }
+
+    /**
+     * @return true if the union of the Patterns was determinized, rather
+     * than being simulated.
+     */
+    boolean isDFA() {
+        return table != null;
+    }
+
+    /**
+     * Scans the input once, with the union; the Patterns outside it then run
+     * a <code>Matcher</code> each.
+     *
+     * @return the ids of the Patterns which find a match in
+     *         <code>csq</code>.
+     */
+    public BitSet matches(CharSequence csq) {
+        Scan scan = new Scan();
+        for (int i = 0; i < csq.length() && !scan.done(); ++i) {
+            scan.next(csq.charAt(i));
+        }
+        BitSet result = scan.end();
+        for (int id : others) {
+            if (patterns.get(id).matcher(csq).find()) result.set(id);
+        }
+        return result;
+    }
+
+    /**
+     * As {@link #matches(CharSequence)}, reading the input a buffer at a
+     * time - unless some Patterns are outside the union, in which case the
+     * input is read whole first, for them to run over.
+     */
+    public BitSet matches(Readable r) throws IOException {
+        CharBuffer cb = CharBuffer.allocate(StreamMatcher.CHAR_BUFFER_CAPACITY_INIT);
+        if (others.length > 0) {
+            StringBuilder sb = new StringBuilder();
+            while (r.read(cb) >= 0) {
+                cb.flip();
+                sb.append(cb);
+                cb.clear();
+            }
+            return matches(sb);
+        }
+        Scan scan = new Scan();
+        while (!scan.done() && r.read(cb) >= 0) {
+            cb.flip();
+            while (cb.hasRemaining() && !scan.done()) scan.next(cb.get());
+            cb.clear();
+        }
+        return scan.end();
+    }
+
+    /*
+     * one pass of the union over an input.
+     */
+    private final class Scan {
+
+        private final BitSet result = new BitSet();
+        private int state;
+        private BitSet states;
+
+        Scan() {
+            state = 0;
+            states = union.alpha;
+            next(INIT);
+        }
+
+        void next(int c) {
+            if (table != null) {
+                state = table[state * width + alphabet.classOf(c)];
+                if (accepted[state] != null) result.or(accepted[state]);
+            } else {
+                states = union.step(states, c, true);
+                BitSet ids = acceptedBy(states);
+                if (ids != null) result.or(ids);
+            }
+        }
+
+        /*
+         * when every Pattern in the union has matched, nothing is left.
+         */
+        boolean done() {
+            return table != null ? state == DEAD : states.isEmpty();
+        }
+
+        BitSet end() {
+            if (!done()) next(Misc.EOF);
+            return result;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PatternSet: " + patterns.size() + " patterns, "
+            + ids.length + " in the union"
+            + (table != null ? ", " + accepted.length + " DFA states" : "");
+    }
+}
@@ -0,0 +1,338 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.Misc.EOF;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import org.xtrms.regex.Pattern.Feature;
+
+/**
+ * A find loop which is fed its input, rather than reading it: each chunk
+ * {@linkplain #feed(CharBuffer) fed} runs the automaton on as far as it
+ * goes, and where the input runs out, its state is kept as it stands - to
+ * resume at the very next char, with the next chunk. Each match is passed
+ * to a {@link MatchVisitor} as it is found, the offsets indexing the chars
+ * still buffered; {@link #startOffset()} and {@link #endOffset()} give them
+ * in the stream. Nothing blocks, so that a selector loop or a
+ * {@link Flow.Publisher} - see {@link #processor(Pattern)} - can drive it.
+ * Note: the API for this class is new and subject to change.
+ * <p>
+ * The scan is that of a table DFA: the {@link Pattern}'s own, where its
+ * {@link Pattern#style()} runs one, or else one built for it. So only
+ * group 0 is reported, and the Pattern must be one a table DFA can run -
+ * no dynamic boundaries nor possessive quantifiers.
+ */
+public final class PushMatcher {
+
+    private final Pattern pattern;
+    private final MatchVisitor visitor;
+    private final DFAtableEngine dfa;
+    private final boolean findLoop;
+    private final CharClass cclt;
+    private final int cr;
+
+    /*
+     * for bytes fed: the decoder, and the bytes of a char not yet complete.
+     */
+    private final CharsetDecoder decoder;
+    private ByteBuffer undecoded = ByteBuffer.allocate(0);
+    private CharBuffer decoded = null;
+
+    /*
+     * the chars fed, from stream offset base on: those from the one before
+     * the search under way began, for the anchors - as many as a
+     * StreamMatcher keeps, up to its limit.
+     */
+    private final CharRing ring = new CharRing(StreamMatcher.CHAR_BUFFER_CAPACITY_INIT);
+    private long base = 0;
+    private boolean eoi = false;
+    private boolean stopped = false;
+
+    /*
+     * where the next search starts, or -1 once the input is exhausted; and
+     * the end of the previous match.
+     */
+    private long from = 0;
+    private long matchEnd = 0;
+
+    /*
+     * the search under way, suspended as it stands where the input ran
+     * out, and where it started.
+     */
+    private boolean scanning = false;
+    private long at;
+    private final DFAtableEngine.Scan scan = new DFAtableEngine.Scan();
+
+    private final int[] groups = new int[2];
+    private long matchStart;
+
+    /**
+     * @throws IllegalArgumentException
+     *             if no table DFA can run the Pattern.
+     */
+    public PushMatcher(Pattern p, MatchVisitor v) {
+        this(p, (CharsetDecoder) null, v);
+    }
+
+    /**
+     * A PushMatcher which is fed bytes, in the charset named.
+     */
+    public PushMatcher(Pattern p, String charsetName, MatchVisitor v) {
+        this(p, Charset.forName(charsetName).newDecoder(), v);
+    }
+
+    private PushMatcher(Pattern p, CharsetDecoder decoder, MatchVisitor v) {
+        this.pattern = p;
+        this.visitor = v;
+        this.decoder = decoder;
+        this.dfa = tableDFAfor(p);
+        this.findLoop = dfa.hasFindLoop();
+        if ((p.flags & Pattern.UNIX_LINES) != 0) {
+            cclt = AbstractMatcher.CCLT_UNIX;
+            cr = (char) -2;
+        } else {
+            cclt = AbstractMatcher.CCLT_UNICODE;
+            cr = '\r';
+        }
+    }
+
+    /*
+     * the Pattern's own table DFA, or else one built - as HybridEngine
+     * builds its own - from the Pattern's NFA, groups and all.
+     */
+    private static DFAtableEngine tableDFAfor(Pattern p) {
+        if (p.tableDFA != null) {
+            return p.tableDFA;
+        }
+        NFA nfa = Pattern.NFAfor(p);
+        if (!HybridEngine.CAPABILITIES.containsAll(nfa.requirements)) {
+            Set<Feature> shortcomings = EnumSet.noneOf(Feature.class);
+            shortcomings.addAll(nfa.requirements);
+            shortcomings.removeAll(HybridEngine.CAPABILITIES);
+            throw new IllegalArgumentException("no table DFA can run Pattern: "
+                + p + ", which requires " + shortcomings);
+        }
+        try {
+            return new DFAtableEngine(EngineStyle.DFA_TABLE, nfa);
+        } catch (EngineStyle.ConstructionException e) {
+            throw new IllegalArgumentException(
+                "no table DFA can run Pattern: " + p, e);
+        }
+    }
+
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * Runs on through the chars remaining in <code>chars</code>, which are
+     * all consumed, reporting the matches found.
+     *
+     * @throws IllegalStateException
+     *             after {@link #endOfInput()}, or if more than a megabyte
+     *             must be kept for a match.
+     */
+    public void feed(CharBuffer chars) {
+        if (eoi) {
+            throw new IllegalStateException("end of input");
+        }
+        ring.put(chars, StreamMatcher.CHAR_BUFFER_CAPACITY_LIMIT);
+        run();
+    }
+
+    /**
+     * Decodes the bytes remaining in <code>bytes</code>, which are all
+     * consumed - those of a char not yet complete kept for the next - and
+     * runs on through the chars.
+     *
+     * @throws IllegalStateException
+     *             if this PushMatcher was not constructed with a charset.
+     */
+    public void feed(ByteBuffer bytes) throws CharacterCodingException {
+        if (decoder == null) {
+            throw new IllegalStateException("no charset");
+        }
+        ByteBuffer in = undecoded;
+        if (in.hasRemaining()) {
+            in = ByteBuffer.allocate(in.remaining() + bytes.remaining());
+            in.put(undecoded).put(bytes).flip();
+        } else {
+            in = bytes;
+        }
+        decode(in, false);
+        undecoded = ByteBuffer.allocate(in.remaining());
+        undecoded.put(in).flip();
+    }
+
+    private void decode(ByteBuffer in, boolean endOfInput) throws CharacterCodingException {
+        if (decoded == null) {
+            decoded = CharBuffer.allocate(StreamMatcher.CHAR_BUFFER_CAPACITY_INIT);
+        }
+        CoderResult result;
+        do {
+            result = decoder.decode(in, decoded, endOfInput);
+            if (result.isError()) result.throwException();
+            if (endOfInput && result.isUnderflow()) {
+                result = decoder.flush(decoded);
+            }
+            decoded.flip();
+            feed(decoded);
+            decoded.clear();
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Marks the end of the input: the search suspended runs to its end, and
+     * the rest of the matches are reported.
+     *
+     * @throws CharacterCodingException
+     *             if the bytes fed end within a char.
+     */
+    public void endOfInput() throws CharacterCodingException {
+        if (eoi) return;
+        if (decoder != null) decode(undecoded, true);
+        eoi = true;
+        run();
+        ring.release();
+    }
+
+    /**
+     * @return the offset in the stream of the start of the match being
+     *         visited.
+     */
+    public long startOffset() {
+        return matchStart;
+    }
+
+    /**
+     * @return the offset in the stream past the end of the match being
+     *         visited.
+     */
+    public long endOffset() {
+        return matchEnd;
+    }
+
+    /*
+     * runs the find loop on as far as the input allows.
+     */
+    private void run() {
+        while (!stopped && from >= 0) {
+            if (!scanning) {
+                at = from;
+                if (!available(at)) break;
+                dfa.start(scan, initStatus(at));
+                scanning = true;
+            }
+            int i = (int) (at - base);
+            if (!dfa.resume(scan, ring, i, ring.length(), eoi)) break;
+            scanning = false;
+            if (scan.end >= 0) {
+                int end = i + scan.end;
+                found(findLoop ? base + dfa.startOf(ring, i, end, ring.length()) : at,
+                    base + end);
+            } else if (!findLoop && charAt(at) != EOF) {
+                from = at + 1;
+            } else {
+                from = -1;
+            }
+        }
+        long keep = Math.max(base, (scanning ? at : from < 0 ? base + ring.length() : from) - 1);
+        ring.drop((int) (keep - base));
+        base = keep;
+    }
+
+    /*
+     * true if the char at stream offset q - or the end of input - is there.
+     */
+    private boolean available(long q) {
+        return eoi || q - base < ring.length();
+    }
+
+    private int charAt(long q) {
+        assert available(q) && q >= base;
+        return q - base < ring.length() ? ring.charAt((int) (q - base)) : EOF;
+    }
+
+    private void found(long start, long end) {
+        matchStart = start;
+        matchEnd = end;
+        from = start < end ? end : charAt(end) == EOF ? -1 : end + 1;
+        groups[0] = (int) (start - base);
+        groups[1] = (int) (end - base);
+        if (!visitor.visit(ring, groups[0], groups[1], groups)) stopped = true;
+    }
+
+    private int initStatus(long at) {
+        return AbstractMatcher.initStatus(at == 0, matchEnd == at,
+            at == 0 ? '\n' : charAt(at - 1), charAt(at), cclt, cr, findLoop);
+    }
+
+    /**
+     * A {@link Flow.Processor} of the matches of <code>p</code> in the
+     * chunks of chars it subscribes to: each match is published as the
+     * <code>String</code> it matched. The chunks are requested one at a
+     * time, and each is fed once the matches of the one before have been
+     * submitted - blocking, as {@link SubmissionPublisher} does, while
+     * subscribers lag.
+     */
+    public static Flow.Processor<CharBuffer, String> processor(Pattern p) {
+        return new Processor(p);
+    }
+
+    private static final class Processor extends SubmissionPublisher<String>
+            implements Flow.Processor<CharBuffer, String> {
+
+        private final PushMatcher pm;
+        private Flow.Subscription subscription;
+
+        Processor(Pattern p) {
+            pm = new PushMatcher(p, new MatchVisitor() {
+                public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+                    submit(csq.subSequence(start, end).toString());
+                    return true;
+                }
+            });
+        }
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        public void onNext(CharBuffer chunk) {
+            pm.feed(chunk);
+            subscription.request(1);
+        }
+
+        public void onError(Throwable throwable) {
+            closeExceptionally(throwable);
+        }
+
+        public void onComplete() {
+            try {
+                pm.endOfInput();
+            } catch (CharacterCodingException e) {
+                closeExceptionally(e);
+                return;
+            }
+            close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PushMatcher: pattern=" + pattern + ", offset=" + base
+            + (eoi ? ", end of input" : "");
+    }
+}
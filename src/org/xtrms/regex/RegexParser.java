@@ -273,19 +273,32 @@ final class RegexParser {
     }
 
     private Node exp() {
-        Node ret = term();
+        List<Node> alternatives = new ArrayList<Node>();
+        alternatives.add(term());
+        while (token == '|') {
+            alternatives.add(term());
+        }
         switch(token) {
         case EOX:
             break;
         case ')':
             break;
-        case '|':
-            ret = alt(ret, exp());
-            break;
         default:
             assert false : "unexpected char at end of term: " + (char) token;
         }
-        return ret;
+        return balancedAlt(alternatives, 0, alternatives.size());
+    }
+
+    /*
+     * Alt is associative, so the alternatives may as well be a balanced
+     * tree: thousands of them then don't overflow the stack of every
+     * Visitor. Up to three, the same as nesting to the right.
+     */
+    private static Node balancedAlt(List<Node> alternatives, int from, int to) {
+        if (to - from == 1) return alternatives.get(from);
+        int mid = from + (to - from) / 2;
+        return alt(balancedAlt(alternatives, from, mid), 
+                balancedAlt(alternatives, mid, to));
     }
 
     private Node term() {
@@ -0,0 +1,97 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFAtableEngine.ACCEPT;
+import static org.xtrms.regex.DFAtableEngine.DEAD;
+import static org.xtrms.regex.DFAtableEngine.FLAG_BITS;
+import static org.xtrms.regex.DFAtableEngine.PURE_ACCEPT;
+import static org.xtrms.regex.Misc.EOF;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xtrms.regex.AST.Node;
+
+/**
+ * A leftmost-longest DFA of the reversed pattern, anchored at the end of a
+ * match found by a forward scan and run backwards to find where the match
+ * starts.
+ * <p>
+ * The leftmost match is the one starting at the first position from which
+ * any match can be made, so its start is the furthest position, reading
+ * backwards from its end, at which the reversed pattern accepts - whatever
+ * the semantics of the forward scan. The scan stops where the forward
+ * scan started, which the DFA sees as {@link Misc#EOF}.
+ */
+final class ReverseDFA {
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    private final DFAtableEngine.Table t;
+
+    private ReverseDFA(NFA reversed) {
+        t = new DFAtableEngine.Table(new DFA(reversed, false, false));
+    }
+
+    /**
+     * @return the ReverseDFA of <code>nfa</code>, or <code>null</code> if
+     * its pattern has dynamic boundaries or the DFA would be too large.
+     */
+    static ReverseDFA newReverseDFA(NFA nfa) {
+        Node reversed = AST.reverse(nfa.root);
+        if (reversed == null) return null;
+        try {
+            return new ReverseDFA(new NFA(nfa.pattern, reversed));
+        } catch (EngineStyle.ConstructionException e) {
+            logger.log(level, e.getMessage() + "; no reverse DFA");
+            return null;
+        }
+    }
+
+    /**
+     * @param m a Matcher whose <code>cga</code> holds the end of a match
+     * found by a forward scan from its <code>start</code>.
+     * @return the start of the match, relative to the Matcher's
+     * <code>start</code>.
+     */
+    int startOf(AbstractMatcher m) {
+        return startOf(m.csq, m.start, m.start + m.cga.end(0)) - m.start;
+    }
+
+    /**
+     * @return the start of the match ending at index <code>end</code> of
+     * <code>csq</code>, found by a forward scan from <code>from</code>.
+     */
+    int startOf(CharSequence csq, int from, int end) {
+
+        final int[] table = t.table;
+        final Alphabet alphabet = t.alphabet;
+        int start = -1;
+        int next = 0;   // init is row 0
+        int c = Integer.MIN_VALUE;  // no init flags: no anchors to check
+        int j = end;
+        int len = 0;
+
+        while (true) {
+            next = table[(next >>> FLAG_BITS) + alphabet.classOf(c)];
+            if (next == DEAD) break;
+            if ((next & ACCEPT) != 0) {
+                start = end - (len - 1);
+            }
+            if ((next & PURE_ACCEPT) != 0) {
+                break;
+            }
+            c = --j >= from ? csq.charAt(j) : EOF;
+            ++len;
+        }
+        assert from <= start && start <= end : start;
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        return "reverse DFA of " + t.stranded.length + " states";
+    }
+}
@@ -17,9 +17,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.CharBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
 import java.util.Iterator;
 import java.util.regex.MatchResult;
 
@@ -34,7 +37,8 @@ public final class StreamMatcher extends AbstractMatcher implements
         MatchResult, Closeable {
 
     /**
-     * The initial input char buffer capacity.
+     * The default initial input char buffer capacity: see
+     * {@link #useBufferSizes(int, int)}.
      * <p>
      * {@link #CHAR_BUFFER_CAPACITY_INIT} is not <code>private</code> or
      * <code>final</code> in order to facilitate testing.
@@ -42,22 +46,52 @@ public final class StreamMatcher extends AbstractMatcher implements
     static int CHAR_BUFFER_CAPACITY_INIT = 4096;
 
     /**
-     * The maximum input buffer size.
+     * The default maximum input buffer size.
      * <p>
-     * This represents an absolute limit on the size of lexemes matched. This
-     * limit is set to one megabyte. It has default accessability (package
-     * protected) for the reasons specified for
-     * {@link #CHAR_BUFFER_CAPACITY_INIT}.
+     * This represents a limit on the size of lexemes matched. This limit is
+     * set to one megabyte. It has default accessability (package protected)
+     * for the reasons specified for {@link #CHAR_BUFFER_CAPACITY_INIT}.
      */
     static int CHAR_BUFFER_CAPACITY_LIMIT = CHAR_BUFFER_CAPACITY_INIT * 256;
 
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final Readable r;
+
+    /*
+     * the file, for an ISO-8859-1 file: csq then, in place of a CharRing.
+     */
+    private final MappedCharSequence mapped;
+
+    /*
+     * the input window - csq, but for a mapped file - and the most it may
+     * grow to.
+     */
+    private CharRing ring;
+    private int capacityLimit = CHAR_BUFFER_CAPACITY_LIMIT;
+
+    /*
+     * the charset the input bytes are decoded from, or null for a Readable;
+     * and the offsets in the stream of index 0, in chars and in bytes.
+     */
+    private final Charset charset;
+    private CharsetEncoder encoder = null;
+    private long base = 0;
+    private long byteBase = 0;
+    /*
+     * a high surrogate compacted away, whose bytes an encoder counts with the
+     * low one at index 0; or 0.
+     */
+    private char pending = 0;
     
     /**
      * Constructs a new <code>StreamMatcher</code> which reads input from the
      * specified file and uses the specified <code>Pattern</code>. Characters
      * are decoded from the input using {@link Charset#defaultCharset()} (the
-     * platform default).
+     * platform default) - or, where that is ISO-8859-1, not decoded at all:
+     * see {@link #StreamMatcher(File, String, Pattern)}.
      * 
      * @param file
      *            The input file
@@ -67,14 +101,19 @@ public final class StreamMatcher extends AbstractMatcher implements
      *             if <code>file</code> is not found.
      */
     public StreamMatcher(File file, Pattern p) throws FileNotFoundException {
-        this(new FileInputStream(file).getChannel(), Charset.defaultCharset()
-            .newDecoder(), p);
+        this(new FileInputStream(file).getChannel(), Charset.defaultCharset(), p);
     }
 
     /**
      * Constructs a new <code>StreamMatcher</code> which reads input from the
      * specified file, and using the specfied charset name, and specified
      * <code>Pattern</code>.
+     * <p>
+     * An ISO-8859-1 file - which ASCII files are too - is memory-mapped
+     * rather than read, a window at a time: each byte is its char, and the
+     * engine reads it in place, with neither decoding nor copying. Then the
+     * largest match is no longer limited by
+     * {@link #CHAR_BUFFER_CAPACITY_LIMIT}, but by the largest window.
      * 
      * @param file
      *            The input file
@@ -87,17 +126,25 @@ public final class StreamMatcher extends AbstractMatcher implements
      */
     public StreamMatcher(File file, String charsetName, Pattern p)
             throws FileNotFoundException {
-        this(new FileInputStream(file).getChannel(), Charset.forName(
-            charsetName).newDecoder(), p);
+        this(new FileInputStream(file).getChannel(), Charset.forName(charsetName), p);
+    }
+
+    private StreamMatcher(FileChannel fc, Charset cs, Pattern p) {
+        this(cs.equals(LATIN_1) ? null : Channels.newReader(fc, cs.newDecoder(), -1),
+            cs.equals(LATIN_1) ? new MappedCharSequence(fc) : null, cs, p);
     }
 
     public StreamMatcher(InputStream in, Pattern p) {
-        this(new InputStreamReader(in, Charset.defaultCharset()), p);
+        this(new InputStreamReader(in, Charset.defaultCharset()), null,
+            Charset.defaultCharset(), p);
     }
 
     public StreamMatcher(InputStream in, String charsetName, Pattern p) {
-        this(new InputStreamReader(in, Charset.forName(charsetName)
-            .newDecoder()), p);
+        this(Charset.forName(charsetName).newDecoder(), in, p);
+    }
+
+    private StreamMatcher(CharsetDecoder dec, InputStream in, Pattern p) {
+        this(new InputStreamReader(in, dec), null, dec.charset(), p);
     }
 
     public StreamMatcher(ReadableByteChannel rbc, Pattern p) {
@@ -109,35 +156,64 @@ public final class StreamMatcher extends AbstractMatcher implements
     }
 
     private StreamMatcher(ReadableByteChannel rbc, CharsetDecoder dec, Pattern p) {
-        this(Channels.newReader(rbc, dec, -1), p);
+        this(Channels.newReader(rbc, dec, -1), null, dec.charset(), p);
     }
 
     public StreamMatcher(Readable r, Pattern p) {
+        this(r, null, null, p);
+    }
+
+    private StreamMatcher(Readable r, MappedCharSequence mapped, Charset cs, Pattern p) {
         super(p);
         this.r = r;
-        CharBuffer cb = CharBuffer.allocate(CHAR_BUFFER_CAPACITY_INIT);
-        cb.flip();
-        csq = cb;
+        this.mapped = mapped;
+        this.charset = cs;
+        if (mapped != null) {
+            csq = mapped;
+        } else {
+            csq = ring = new CharRing(CHAR_BUFFER_CAPACITY_INIT);
+        }
+    }
+
+    /**
+     * Sets the initial and maximum sizes of the input buffer, each rounded
+     * up to a power of two; the initial size only applies before any input
+     * is read. The buffer grows, doubling, only when a match does not fit -
+     * the maximum is the limit on the size of a match. The buffers are
+     * pooled, and are given back for reuse by {@link #close()}. A
+     * memory-mapped file has no buffer, and ignores these sizes.
+     * 
+     * @return this StreamMatcher (useful for invocation chaining)
+     */
+    public StreamMatcher useBufferSizes(int initial, int maximum) {
+        if (initial > maximum) {
+            throw new IllegalArgumentException(initial + " > " + maximum);
+        }
+        capacityLimit = CharRing.capacityFor(maximum);
+        if (ring != null && base == 0 && ring.length() == 0
+                && ring.capacity() != CharRing.capacityFor(initial)) {
+            ring.release();
+            csq = ring = new CharRing(initial);
+        }
+        return this;
     }
 
     private boolean charBufferInvariants() {
-        CharBuffer cb = (CharBuffer) csq;
-        return 0 <= appendPosition && appendPosition <= start 
-                && start <= i && i <= regionEnd 
-                && cb.length() == regionEnd
-                && (
-                        (cb.position() == 0 && cb.limit() == cb.length())
-                    ||
-                        (cb.position() == 1 && cb.limit() == cb.length() - 1));
+        if (0 > appendPosition || appendPosition > start 
+                || start > i || i > regionEnd) {
+            return false;
+        }
+        return csq.length() == regionEnd;
     }
 
     /**
-     * Get more input and grow the buffer if necessary. Note, when compacting
-     * the buffer, if at least one character has been consumed, then one
+     * Get more input and grow the buffer if necessary. Note, when dropping
+     * the consumed chars, if at least one character has been consumed, then one
      * character previously sent into the engine is saved in the buffer, so that
      * 1) the lookbehind semantics of the anchors and boundaries are preserved,
      * and 2) so the start == regionStart condition is only true for the _true_
-     * beginning of input. TODO: need a test case where first match consumes 1
+     * beginning of input. A mapped file slides its window on likewise. TODO:
+     * need a test case where first match consumes 1
      * char and next match exhausts buffer, forcing read. TODO: test that the \A
      * anchor truly only works at the begining of input.
      * 
@@ -154,7 +230,6 @@ public final class StreamMatcher extends AbstractMatcher implements
                 iox = e;
             }
         }
-        CharBuffer cb = (CharBuffer) csq;
         int newCbPosition, newStart;
         if (start == 0) {
             newCbPosition = newStart = 0;
@@ -162,24 +237,30 @@ public final class StreamMatcher extends AbstractMatcher implements
             newCbPosition = start - 1;
             newStart = 1;
         }
-        cb.position(newCbPosition);
-        if (cb.remaining() < cb.capacity()) {
-            cb.compact();
-        } else {
-            if (cb.capacity() >= CHAR_BUFFER_CAPACITY_LIMIT) {
-                throw new IllegalStateException("max char buffer size exceeded");
+        if (charset != null) {
+            byteBase += byteLength(0, newCbPosition);
+            if (newCbPosition > 0) {
+                char c = csq.charAt(newCbPosition - 1);
+                pending = Character.isHighSurrogate(c) ? c : 0;
             }
-            CharBuffer newCb = CharBuffer.allocate(cb.capacity() * 2);
-            newCb.put(cb);
-            cb = newCb;
         }
-        try {
-            while ((nchars = r.read(cb)) == 0);     // got something, or EOF
-        } catch (IOException e) {
-            iox = e;
+        base += newCbPosition;
+        if (mapped != null) {
+            try {
+                nchars = mapped.slide(newCbPosition);
+            } catch (IOException e) {
+                iox = e;
+                nchars = -1;
+            }
+        } else {
+            ring.drop(newCbPosition);
+            try {
+                nchars = ring.fill(r, capacityLimit);
+            } catch (IOException e) {
+                iox = e;
+                nchars = -1;
+            }
         }
-        cb.flip();
-        csq = cb;
         i -= newCbPosition;
         matchEnd -= newCbPosition;
         start = end = appendPosition = newStart;
@@ -217,7 +298,7 @@ public final class StreamMatcher extends AbstractMatcher implements
         evalProlog(false);
         
         assert start == end;
-        engine.eval(this);
+        eval(engine);
         
         evalEpilog();
         if (match) {
@@ -276,8 +357,9 @@ public final class StreamMatcher extends AbstractMatcher implements
             }
         }
         if (engineHasFindLoop) {
+            skipToPrefix();
             evalProlog(true);
-            engine.eval(this);
+            eval(engine);
             if (found = match = cga.match(0)) {
                 end = matchEnd = start + cga.end(0);
                 zedBump = (cga.end(0) - cga.start(0)) == 0 ? 1 : 0;
@@ -287,8 +369,9 @@ public final class StreamMatcher extends AbstractMatcher implements
             }
         } else {
             while (end <= regionEnd) {
+                skipToPrefix();
                 evalProlog(false);
-                engine.eval(this);
+                eval(engine);
                 if (match = cga.match(0)) {
                     end = matchEnd = start + cga.end(0);
                     zedBump = (end == start) ? 1 : 0;
@@ -325,6 +408,22 @@ public final class StreamMatcher extends AbstractMatcher implements
         return finder;
     }
 
+    /**
+     * Runs the rest of the {@link #findNext()} loop, passing each match to
+     * <code>v</code> by its offsets into the buffer - no <code>String</code>
+     * per match, as {@link #finder()} makes.
+     * 
+     * @return the number of matches visited.
+     */
+    public int forEachMatch(MatchVisitor v) {
+        int n = 0;
+        while (findNext()) {
+            ++n;
+            if (!visit(v)) break;
+        }
+        return n;
+    }
+
     public Appendable setResult(Appendable result) {
         Appendable ret = this.result;
         this.result = result;
@@ -341,6 +440,91 @@ public final class StreamMatcher extends AbstractMatcher implements
 
     }
 
+    /*
+     * the number of bytes csq from index <code>from</code> to
+     * <code>to</code> was decoded from - where an encoder counts them, less
+     * a high surrogate at the end, and plus the one pending at index 0.
+     */
+    private long byteLength(int from, int to) {
+        if (charset.equals(LATIN_1) || charset.equals(US_ASCII)) {
+            return to - from;
+        }
+        if (charset.equals(UTF_8)) {
+            long n = 0;
+            for (int j = from; j < to; ++j) {
+                char c = csq.charAt(j);
+                n += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+            }
+            return n;
+        }
+        if (encoder == null) encoder = charset.newEncoder();
+        if (to > from && Character.isHighSurrogate(csq.charAt(to - 1))) {
+            --to;   // counted with its low surrogate
+        }
+        CharSequence chars = csq.subSequence(from, to);
+        if (from == 0 && pending != 0) {
+            if (to == 0) return 0;
+            chars = pending + chars.toString();
+        }
+        try {
+            return encoder.encode(CharBuffer.wrap(chars)).remaining();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the offset in the stream, in chars, of the start of the group
+     *         in the previous match; or -1 if the group did not participate.
+     * @throws IllegalStateException
+     *             if there is no match.
+     */
+    public long startOffset(int group) {
+        checkMatch();
+        int start = cga.start(group);
+        return start == -1 ? -1 : base + this.start + start;
+    }
+
+    /**
+     * @return the offset in the stream, in chars, past the end of the group
+     *         in the previous match; or -1 if the group did not participate.
+     */
+    public long endOffset(int group) {
+        checkMatch();
+        int end = cga.end(group);
+        return end == -1 ? -1 : base + this.start + end;
+    }
+
+    /**
+     * As {@link #startOffset(int)}, in bytes, for input read from a file,
+     * stream or channel: the offset to seek to for the start of the group.
+     * It is counted by encoding the chars decoded - arithmetically, for
+     * UTF-8 and single-byte charsets - so is exact for well-formed input in
+     * a charset which encodes each char alike wherever it occurs (not
+     * UTF-16 with a byte order mark, say).
+     * 
+     * @throws UnsupportedOperationException
+     *             if the input is a <code>Readable</code>, with no bytes.
+     */
+    public long startByteOffset(int group) {
+        checkMatch();
+        return byteOffset(cga.start(group));
+    }
+
+    /**
+     * As {@link #endOffset(int)}, in bytes: see
+     * {@link #startByteOffset(int)}.
+     */
+    public long endByteOffset(int group) {
+        checkMatch();
+        return byteOffset(cga.end(group));
+    }
+
+    private long byteOffset(int offset) {
+        if (charset == null) uox();
+        return offset == -1 ? -1 : byteBase + byteLength(0, this.start + offset);
+    }
+
     /**
      * Implements a terminal step in an append-and-replace loop.
      * <p>
@@ -403,6 +587,14 @@ public final class StreamMatcher extends AbstractMatcher implements
     }
 
     public void close() {
+        if (ring != null) ring.release();
+        if (mapped != null) {
+            try {
+                mapped.close();
+            } catch (IOException e) {
+                iox = e;
+            }
+        }
         if (this.result != null) {
             try {
                 if (result instanceof Flushable) {
@@ -418,12 +610,8 @@ public final class StreamMatcher extends AbstractMatcher implements
     }
 
     /*
-     * TODO: consider having these return the offset from the beginning
-     * of the stream - could be useful to clients. How much does this alter
-     * the contract? What does it even mean in the context of not having
-     * a csq? Reporting the offset could be viewed as more true to the intent.
-     * 
-     * As an alternative, consider a new interface which returns longs.
+     * The int offsets index the buffer, which moves on through the stream:
+     * see startOffset(int) and endOffset(int) for offsets from its start.
      */
     
     /**
@@ -0,0 +1,343 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFA.GROUP_SEPARATOR;
+import static org.xtrms.regex.Misc.LS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A tagged DFA, after Ville Laurikari's thesis: the subset construction of
+ * {@link DFA}, except that each NFA State of a DFA State carries, for each of
+ * its strand's tags, the register which holds it. Each transition then
+ * carries the register operations which take the strands over to the next
+ * State, and the capture groups of a match are read from the registers of
+ * the <code>accept</code> strand.
+ * <p>
+ * Registers are numbered in order of first use by the strands of a State,
+ * so that States differing only in register names are the same State. The
+ * strands keep the priority order of the <code>NFAtableEngine</code>, in
+ * either semantics, since the first strand to reach an NFA State is the one
+ * whose tags survive.
+ */
+final class TDFA {
+
+    /**
+     * A tag not set: in a strand, instead of a register.
+     */
+    static final int NIL = -1;
+
+    /**
+     * The current position: in a register operation, instead of the
+     * register to copy.
+     */
+    static final int POSITION = -2;
+
+    private static final int MAX_STATE_COUNT = 10 * 1000;
+
+    /**
+     * An NFA State, with the registers which hold the tags of its strand.
+     */
+    private static final class Strand {
+
+        final NFA.State nfaState;
+        final int[] regs;
+
+        Strand(NFA.State nfaState, int[] regs) {
+            this.nfaState = nfaState;
+            this.regs = regs;
+        }
+        @Override
+        public int hashCode() {
+            return 31 * nfaState.hashCode() + Arrays.hashCode(regs);
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Strand)) return false;
+            Strand other = (Strand) obj;
+            return nfaState == other.nfaState
+                && Arrays.equals(regs, other.regs);
+        }
+        @Override
+        public String toString() {
+            return nfaState.position + Arrays.toString(regs);
+        }
+    }
+
+    static final class State {
+
+        final int number;
+        private final List<Strand> strands;
+
+        /**
+         * The number of registers in use.
+         */
+        final int nregs;
+
+        final boolean containsOmega;
+        final boolean stranded;
+
+        /**
+         * The registers of the <code>accept</code> strand, by tag, or
+         * <code>null</code> if this State does not accept.
+         */
+        final int[] accept;
+
+        /**
+         * Next State and register operations, by symbol class: the
+         * operations give, for each register of the next State, the register
+         * of this State to copy, or {@link TDFA#POSITION}.
+         */
+        final State[] next;
+        final int[][] ops;
+
+        private State(NFA nfa, int number, List<Strand> strands, int width) {
+            this.number = number;
+            this.strands = strands;
+            List<NFA.State> nfaStates = new ArrayList<NFA.State>();
+            int[] accept = null;
+            int nregs = 0;
+            for (Strand strand : strands) {
+                if (strand == null) {
+                    nfaStates.add(GROUP_SEPARATOR);
+                    continue;
+                }
+                nfaStates.add(strand.nfaState);
+                if (strand.nfaState == nfa.accept) accept = strand.regs;
+                for (int r : strand.regs) nregs = Math.max(nregs, r + 1);
+            }
+            this.accept = accept;
+            this.nregs = nregs;
+            List<NFA.State> lead = DFA.leadingGroup(nfaStates);
+            containsOmega = lead.contains(nfa.omega);
+            stranded = lead.size() >
+                (containsOmega ? lead.contains(nfa.accept) ? 2 : 1 : 0);
+            next = new State[width];
+            ops = new int[width][];
+        }
+
+        boolean pureAccept() {
+            return accept != null && strands.size() == 1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("state ").append(number).append(": ");
+            for (Strand strand : strands) {
+                sb.append(strand == null ? "|" : strand.toString()).append(' ');
+            }
+            sb.append(LS);
+            for (int k = 0; k < next.length; ++k) {
+                if (next[k] == null) continue;
+                sb.append("    ").append(k).append(" -> ")
+                  .append(next[k].number).append(' ')
+                  .append(Arrays.toString(ops[k])).append(LS);
+            }
+            return sb.toString();
+        }
+    }
+
+    final NFA nfa;
+    final boolean leftmostFirst;
+    final boolean findLoop;
+    final Alphabet alphabet;
+
+    /**
+     * The States, the initial State first.
+     */
+    final List<State> states;
+
+    /**
+     * The most registers any State uses.
+     */
+    final int nregs;
+
+    /**
+     * @param leftmostFirst true for Perl style (priority ordered) semantics,
+     * false for POSIX style (leftmost-longest) semantics.
+     * @param findLoop true to follow the <code>loop</code> State; see
+     * {@link DFA#findLoopApplies(NFA)}.
+     * @throws EngineStyle.ConstructionException if there would be too many
+     * States.
+     */
+    TDFA(NFA nfa, boolean leftmostFirst, boolean findLoop) {
+
+        assert !findLoop || DFA.findLoopApplies(nfa);
+        this.nfa = nfa;
+        this.leftmostFirst = leftmostFirst;
+        this.findLoop = findLoop;
+        this.alphabet = nfa.alphabet();
+
+        final int width = alphabet.size();
+        final Map<List<Strand>, State> map = new HashMap<List<Strand>, State>();
+        final List<State> states = new ArrayList<State>();
+        final LinkedList<State> queue = new LinkedList<State>();
+
+        List<Strand> init = new ArrayList<Strand>();
+        for (NFA.State nfaState : nfa.alpha) {
+            init.add(new Strand(nfaState, nil(nfa.tncg)));
+        }
+        State state = new State(nfa, 0, init, width);
+        map.put(init, state);
+        states.add(state);
+        queue.add(state);
+
+        /*
+         * the next State depends only on which strands contain the symbol,
+         * so classes which agree on that share the work.
+         */
+        Map<BitSet, Integer> memo = new HashMap<BitSet, Integer>();
+        while (!queue.isEmpty()) {
+            state = queue.removeFirst();
+            memo.clear();
+            for (int k = 1; k < width; ++k) {
+                int c = alphabet.representative(k);
+                BitSet containing = new BitSet();
+                int i = 0;
+                for (Strand strand : state.strands) {
+                    if (strand != null
+                            && strand.nfaState.cc.contains(c)) containing.set(i);
+                    ++i;
+                }
+                if (containing.isEmpty()) continue;
+                Integer same = memo.get(containing);
+                if (same != null) {
+                    state.next[k] = state.next[same];
+                    state.ops[k] = state.ops[same];
+                    continue;
+                }
+                memo.put(containing, k);
+                List<Strand> strands = strandsFrom(state.strands, c);
+                if (strands.isEmpty()) continue;
+                state.ops[k] = rename(strands);
+                State ns = map.get(strands);
+                if (ns == null) {
+                    if (states.size() >= MAX_STATE_COUNT) {
+                        throw new EngineStyle.ConstructionException(
+                            "TDFA state count exceeded: " + MAX_STATE_COUNT);
+                    }
+                    ns = new State(nfa, states.size(), strands, width);
+                    map.put(strands, ns);
+                    states.add(ns);
+                    queue.add(ns);
+                }
+                state.next[k] = ns;
+            }
+        }
+        this.states = Collections.unmodifiableList(states);
+        int nregs = 0;
+        for (State s : states) nregs = Math.max(nregs, s.nregs);
+        this.nregs = nregs;
+    }
+
+    private static int[] nil(int tncg) {
+        int[] regs = new int[2 * tncg];
+        Arrays.fill(regs, NIL);
+        return regs;
+    }
+
+    /*
+     * As DFA.stateListFrom(), but the strands are never sorted, and their
+     * registers are copied along, or set to the POSITION where the arc
+     * carries the tag.
+     */
+    private List<Strand> strandsFrom(List<Strand> from, int c) {
+        Set<NFA.State> seen = new HashSet<NFA.State>();
+        List<Strand> list = new ArrayList<Strand>();
+        boolean accepted = false;
+        Strand loop = null;
+        next_strand:
+        for (Strand strand : from) {
+            if (strand == null) {
+                if (accepted) break;
+                separate(list);
+                continue;
+            }
+            NFA.State nfaState = strand.nfaState;
+            if (!nfaState.cc.contains(c)) continue;
+            if (nfaState == nfa.loop) separate(list);
+            for (NFA.Arc arc : nfaState.arcs()) {
+                assert arc.dbcs().isEmpty();
+                if (arc.ns == nfa.loop) {
+                    if (findLoop) loop = strandFrom(strand, arc);
+                    continue;
+                }
+                if (seen.add(arc.ns)) list.add(strandFrom(strand, arc));
+                if (arc.ns == nfa.accept) {
+                    accepted = true;
+                    if (leftmostFirst) break next_strand;
+                }
+            }
+        }
+        if (loop != null && !accepted) {
+            separate(list);
+            list.add(loop);
+        }
+        if (!list.isEmpty() && list.get(list.size() - 1) == null) {
+            list.remove(list.size() - 1);
+        }
+        return list;
+    }
+
+    private static Strand strandFrom(Strand strand, NFA.Arc arc) {
+        int[] regs = strand.regs.clone();
+        for (int t = 0; t < regs.length; ++t) {
+            if (arc.tags[t]) regs[t] = POSITION;
+        }
+        return new Strand(arc.ns, regs);
+    }
+
+    private static void separate(List<Strand> list) {
+        if (!list.isEmpty() && list.get(list.size() - 1) != null) {
+            list.add(null);
+        }
+    }
+
+    /*
+     * renames the registers of strands - still those of the previous State,
+     * or POSITION - in order of first use.
+     *
+     * returns the register operations: for each new register, the old one
+     * or POSITION.
+     */
+    private static int[] rename(List<Strand> strands) {
+        Map<Integer, Integer> names = new HashMap<Integer, Integer>();
+        List<Integer> ops = new ArrayList<Integer>();
+        for (Strand strand : strands) {
+            if (strand == null) continue;
+            for (int t = 0; t < strand.regs.length; ++t) {
+                int r = strand.regs[t];
+                if (r == NIL) continue;
+                Integer name = names.get(r);
+                if (name == null) {
+                    names.put(r, name = ops.size());
+                    ops.add(r);
+                }
+                strand.regs[t] = name;
+            }
+        }
+        int[] ret = new int[ops.size()];
+        for (int i = 0; i < ret.length; ++i) ret[i] = ops.get(i);
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("TDFA: ").append(states.size()).append(" states, ")
+          .append(nregs).append(" registers").append(LS);
+        for (State state : states) sb.append(state);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,177 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFAtableEngine.ACCEPT;
+import static org.xtrms.regex.DFAtableEngine.DEAD;
+import static org.xtrms.regex.DFAtableEngine.FLAG_BITS;
+import static org.xtrms.regex.DFAtableEngine.PURE_ACCEPT;
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+import static org.xtrms.regex.Pattern.Feature.CAPTURING_GROUPS;
+import static org.xtrms.regex.Pattern.Feature.LEFTMOST_FIRST;
+import static org.xtrms.regex.Pattern.Feature.LOOP_DBC;
+import static org.xtrms.regex.Pattern.Feature.RELUCTANT_QUANTIFIERS;
+import static org.xtrms.regex.TDFA.NIL;
+import static org.xtrms.regex.TDFA.POSITION;
+
+import java.util.EnumSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tagged DFA engine: a single deterministic pass finds the match and its
+ * capture groups, with a fixed set of register writes per char in place of
+ * the <code>NFAtableEngine</code>'s copying of capture groups from strand to
+ * strand.
+ * <p>
+ * The transition table is laid out as the <code>DFAtableEngine</code>'s;
+ * alongside each entry are the register operations of the transition.
+ */
+final class TDFAtableEngine extends Engine {
+
+    public static final EnumSet<Pattern.Feature> CAPABILITIES = EnumSet.of(
+        CAPTURING_GROUPS, LOOP_DBC, LEFTMOST_FIRST, RELUCTANT_QUANTIFIERS);
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    private final TDFA tdfa;
+    TDFA tdfa() {
+        return tdfa;
+    }
+
+    private final Alphabet alphabet;
+    private final int width;
+    private final int[] table;
+    private final int[][] ops;
+    private final int[][] accept;
+    private final boolean[] stranded;
+    private final boolean[] containsOmega;
+
+    /*
+     * the registers of a Matcher: the current ones and the next ones.
+     */
+    private static final class Registers {
+        int[] curr;
+        int[] next;
+        Registers(int nregs) {
+            curr = new int[nregs];
+            next = new int[nregs];
+        }
+    }
+
+    TDFAtableEngine(EngineStyle style, NFA nfa) {
+        this(style, nfa, DFA.findLoopApplies(nfa));
+    }
+
+    /**
+     * @param findLoop false for a TDFA which is only ever run anchored.
+     */
+    TDFAtableEngine(EngineStyle style, NFA nfa, boolean findLoop) {
+        super(style);
+        boolean leftmostFirst =
+            !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST);
+        TDFA tdfa = null;
+        if (findLoop) {
+            try {
+                tdfa = new TDFA(nfa, leftmostFirst, true);
+            } catch (EngineStyle.ConstructionException e) {
+                logger.log(level, e.getMessage() + "; no find loop");
+            }
+        }
+        if (tdfa == null) tdfa = new TDFA(nfa, leftmostFirst, false);
+        this.tdfa = tdfa;
+
+        alphabet = tdfa.alphabet;
+        width = alphabet.size();
+        int nstates = tdfa.states.size();
+        if ((long) nstates * width > Integer.MAX_VALUE >>> FLAG_BITS) {
+            throw new EngineStyle.ConstructionException(
+                "TDFA transition table too large: " + nstates
+                + " states, " + width + " classes");
+        }
+        table = new int[nstates * width];
+        ops = new int[nstates * width][];
+        accept = new int[nstates][];
+        stranded = new boolean[nstates];
+        containsOmega = new boolean[nstates];
+        for (TDFA.State state : tdfa.states) {
+            int s = state.number;
+            accept[s] = state.accept;
+            stranded[s] = state.stranded;
+            containsOmega[s] = state.containsOmega;
+            int row = s * width;
+            for (int k = 0; k < width; ++k) {
+                TDFA.State ns = state.next[k];
+                table[row + k] = ns == null ? DEAD
+                        : (ns.number * width) << FLAG_BITS
+                            | (ns.accept != null ? ACCEPT : 0)
+                            | (ns.pureAccept() ? PURE_ACCEPT : 0);
+                ops[row + k] = state.ops[k];
+            }
+        }
+    }
+
+    @Override
+    protected void eval(AbstractMatcher m) {
+
+        final int[] table = this.table;
+        final int[][] ops = this.ops;
+        final Alphabet alphabet = this.alphabet;
+        final Registers registers = m.mls != null ? (Registers) m.mls
+                : (Registers) (m.mls = new Registers(tdfa.nregs));
+        int[] regs = registers.curr;
+        int[] temp = registers.next;
+        int row;
+        int next = 0;   // init is row 0
+        int c = m.initStatus;
+        int len = 0;
+
+        while (true) {
+            row = next >>> FLAG_BITS;
+            int tr = row + alphabet.classOf(c);
+            next = table[tr];
+            if (next == DEAD) break;
+            final int[] op = ops[tr];
+            for (int k = 0; k < op.length; ++k) {
+                temp[k] = op[k] == POSITION ? len : regs[op[k]];
+            }
+            int[] swap = regs;
+            regs = temp;
+            temp = swap;
+            if ((next & ACCEPT) != 0) {
+                final int[] tags = accept[(next >>> FLAG_BITS) / width];
+                final int[] a = m.cga.a;
+                assert a.length == tags.length;
+                for (int t = 0; t < tags.length; ++t) {
+                    a[t] = tags[t] == NIL ? -1 : regs[tags[t]];
+                }
+            }
+            if ((next & PURE_ACCEPT) != 0) {
+                break;
+            }
+            c = m.nextChar();
+            ++len;
+        }
+        int s = row / width;
+        m.hitEnd = c == EOF
+                && stranded[s];
+        m.requireEnd = c == EOF
+                && m.cga.match(0)
+                && m.cga.end(0) == len - 1
+                && !containsOmega[s];
+    }
+
+    @Override
+    boolean hasFindLoop() {
+        return tdfa.findLoop;
+    }
+
+    @Override
+    protected String doToString() {
+        return super.doToString() + " (" + tdfa.states.size() + " states, "
+            + tdfa.nregs + " registers, " + (width - 1) + " classes"
+            + (tdfa.findLoop ? ", find loop" : "") + ")";
+    }
+}
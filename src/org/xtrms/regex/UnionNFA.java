@@ -0,0 +1,179 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xtrms.regex.Pattern.Feature;
+
+/**
+ * Several NFAs run side by side as one: their States numbered NFA by NFA,
+ * and a set of them a {@link BitSet}. Used by {@link PatternSet} and
+ * {@link Lexer}, which tell the NFAs apart by their <code>accept</code>
+ * States.
+ * <p>
+ * Only NFAs free of dynamic boundary checks may be united: there is no
+ * Matcher to check them.
+ */
+final class UnionNFA {
+
+    /*
+     * the States of the j-th NFA are first[j] up to first[j + 1].
+     */
+    private final int[] first;
+    private final int[] accepts;
+    private final CharClass[] ccs;
+    private final int[][] follow;
+
+    final BitSet alpha;
+    final Alphabet alphabet;
+
+    UnionNFA(List<NFA> nfas) {
+        Map<NFA.State, Integer> number = new IdentityHashMap<NFA.State, Integer>();
+        List<NFA.State> states = new ArrayList<NFA.State>();
+        first = new int[nfas.size() + 1];
+        accepts = new int[nfas.size()];
+        for (int j = 0; j < nfas.size(); ++j) {
+            assert unites(nfas.get(j));
+            first[j] = states.size();
+            for (NFA.State state : nfas.get(j).states()) {
+                number.put(state, states.size());
+                states.add(state);
+            }
+            Integer accept = number.get(nfas.get(j).accept);
+            accepts[j] = accept != null ? accept : -1;  // can't match
+        }
+        first[nfas.size()] = states.size();
+        ccs = new CharClass[states.size()];
+        follow = new int[states.size()][];
+        for (int s = 0; s < ccs.length; ++s) {
+            NFA.State state = states.get(s);
+            ccs[s] = state.cc;
+            follow[s] = new int[state.size()];
+            int n = 0;
+            for (NFA.Arc arc : state.arcs()) {
+                assert arc.dbcs().isEmpty();
+                follow[s][n++] = number.get(arc.ns);
+            }
+        }
+        alpha = new BitSet();
+        for (NFA nfa : nfas) {
+            for (NFA.State state : nfa.alpha) alpha.set(number.get(state));
+        }
+        alphabet = new Alphabet(nfas);
+    }
+
+    /**
+     * @return true if <code>nfa</code> has no boundaries to check, and so
+     * may be united with others.
+     */
+    static boolean unites(NFA nfa) {
+        return !nfa.requirements.contains(Feature.DYNAMIC_BOUNDARIES)
+            && !nfa.requirements.contains(Feature.LOOP_DBC)
+            && !nfa.requirements.contains(Feature.POSSESSIVE_QUANTIFIERS);
+    }
+
+    /**
+     * @return the number of NFAs united.
+     */
+    int size() {
+        return accepts.length;
+    }
+
+    /**
+     * @param retire
+     *            true to {@linkplain #retire(BitSet, int) retire} each NFA
+     *            which reaches its <code>accept</code> State.
+     * @return the NFA States reached from those of <code>from</code> on the
+     *         symbol <code>c</code>.
+     */
+    BitSet step(BitSet from, int c, boolean retire) {
+        BitSet to = new BitSet();
+        for (int s = from.nextSetBit(0); s >= 0; s = from.nextSetBit(s + 1)) {
+            if (!ccs[s].contains(c)) continue;
+            for (int ns : follow[s]) to.set(ns);
+        }
+        if (retire) {
+            for (int j = 0; j < accepts.length; ++j) {
+                if (accepts(to, j)) retire(to, j);
+            }
+        }
+        return to;
+    }
+
+    /**
+     * The empty set of NFA States, as numbered by
+     * {@link #determinize(boolean, int, List)}.
+     */
+    static final int DEAD = 1;
+
+    /**
+     * Subset construction, over the classes of the {@link #alphabet}: state
+     * 0 is {@link #alpha}, and state {@link #DEAD} the empty set.
+     * 
+     * @param retire
+     *            as per {@link #step(BitSet, int, boolean)}.
+     * @param dfaStates
+     *            filled in with the NFA States of each DFA state.
+     * @return the transition table: a row of width
+     *         <code>alphabet.size()</code> per state.
+     * @throws EngineStyle.ConstructionException
+     *             past <code>maxStates</code> states.
+     */
+    int[] determinize(boolean retire, int maxStates, List<BitSet> dfaStates) {
+        final int width = alphabet.size();
+        Map<BitSet, Integer> index = new HashMap<BitSet, Integer>();
+        dfaStates.add(alpha);
+        index.put(alpha, 0);
+        dfaStates.add(new BitSet());
+        index.put(new BitSet(), DEAD);
+        int[] table = new int[2 * width];
+        for (int d = 0; d < dfaStates.size(); ++d) {
+            if (d == DEAD) continue;
+            for (int k = 1; k < width; ++k) {
+                BitSet to = step(dfaStates.get(d), alphabet.representative(k), retire);
+                Integer next = index.get(to);
+                if (next == null) {
+                    if (dfaStates.size() == maxStates) {
+                        throw new EngineStyle.ConstructionException(
+                            "DFA state count exceeded: " + maxStates);
+                    }
+                    index.put(to, next = dfaStates.size());
+                    dfaStates.add(to);
+                    if (table.length < dfaStates.size() * width) {
+                        int[] grown = new int[2 * table.length];
+                        System.arraycopy(table, 0, grown, 0, table.length);
+                        table = grown;
+                    }
+                }
+                table[d * width + k] = next;
+            }
+            table[d * width] = DEAD;
+        }
+        for (int k = 0; k < width; ++k) table[DEAD * width + k] = DEAD;
+        return table;
+    }
+
+    /**
+     * @return true if <code>states</code> contains the <code>accept</code>
+     * State of the j-th NFA.
+     */
+    boolean accepts(BitSet states, int j) {
+        return accepts[j] >= 0 && states.get(accepts[j]);
+    }
+
+    /**
+     * Clears the States of the j-th NFA from <code>states</code>, but for its
+     * <code>accept</code> State.
+     */
+    void retire(BitSet states, int j) {
+        boolean accepted = accepts(states, j);
+        states.clear(first[j], first[j + 1]);
+        if (accepted) states.set(accepts[j]);
+    }
+}
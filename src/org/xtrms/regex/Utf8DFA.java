@@ -0,0 +1,373 @@
+/* @LICENSE@
+ */
+package org.xtrms.regex;
+
+import static org.xtrms.regex.DFAtableEngine.ACCEPT;
+import static org.xtrms.regex.DFAtableEngine.DEAD;
+import static org.xtrms.regex.DFAtableEngine.FLAG_BITS;
+import static org.xtrms.regex.DFAtableEngine.PURE_ACCEPT;
+import static org.xtrms.regex.Misc.EOF;
+import static org.xtrms.regex.Misc.isSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The DFA of a pattern over the UTF-8 encoding of its input, for the
+ * {@link ByteMatcher}: a byte at a time, with no decoding.
+ * <p>
+ * Built from the char DFA, as RE2 and Rust's regex build theirs from the
+ * NFA: each state of the char DFA keeps its number, and its transitions on
+ * code points become byte trie paths through intermediate nodes appended
+ * after them - one byte per path for ASCII, up to four for supplementary
+ * code points, whose pair of surrogates the char DFA reads in two steps.
+ * Where a code point range is uniform all the way down, the rest of the path
+ * is a chain of continuation byte ranges, shared by every state; so is any
+ * node identical to one already made.
+ * <p>
+ * A table entry is as in the {@link DFAtableEngine}, with a row of 256
+ * bytes plus {@link #EOF_COLUMN} per node; the {@link DFAtableEngine#ACCEPT}
+ * flag is only ever on an entry into a char state, and then means the
+ * match ended where the code point just read began. Malformed UTF-8 leads
+ * to {@link DFAtableEngine#DEAD}.
+ */
+final class Utf8DFA {
+
+    private static final Logger logger = Logger.getLogger("org.xtrms.regex");
+    private static final Level level = Level.FINEST;
+
+    static final int EOF_COLUMN = 256;
+    static final int WIDTH = 257;
+
+    private static final int FLAGS = ACCEPT | PURE_ACCEPT;
+    private static final int NONUNIFORM = -2;
+    private static final int CP_END = Character.MAX_CODE_POINT + 1;
+
+    final int[] table;
+    final boolean findLoop;
+
+    /*
+     * by char state, then the sink: a state matching nothing more, for a
+     * match which ends before a supplementary code point the char DFA only
+     * got half through.
+     */
+    final boolean[] stranded;
+    final boolean[] containsOmega;
+    private final int nCharStates;
+    private final int sink;
+
+    /*
+     * the entry of the init symbol, by its class.
+     */
+    private final Alphabet alphabet;
+    private final int[] init;
+
+    private final int[] charTable;
+    private final int charWidth;
+
+    /*
+     * the nodes being built: their rows, and those already made.
+     */
+    private final List<int[]> rows = new ArrayList<int[]>();
+    private final Map<Row, Integer> made = new HashMap<Row, Integer>();
+
+    /*
+     * the partition of the code points by the entry of the state being
+     * built: entries[j] from bounds[j] up to bounds[j + 1].
+     */
+    private int[] bounds;
+    private int[] entries;
+
+    private Utf8DFA(NFA nfa) {
+        NFA stripped = new NFA(nfa.pattern, AST.stripCaptureGroups(nfa.root));
+        boolean leftmostFirst =
+            !isSet(nfa.pattern.flags, Pattern.X_LEFTMOST_LONGEST);
+        DFA dfa = null;
+        if (DFA.findLoopApplies(stripped)) {
+            try {
+                dfa = new DFA(stripped, leftmostFirst, true);
+            } catch (EngineStyle.ConstructionException e) {
+                logger.log(level, e.getMessage() + "; no find loop");
+            }
+        }
+        if (dfa == null) dfa = new DFA(stripped, leftmostFirst, false);
+        findLoop = dfa.findLoop;
+        DFAtableEngine.Table t = new DFAtableEngine.Table(dfa);
+        alphabet = t.alphabet;
+        charTable = t.table;
+        charWidth = t.width;
+        nCharStates = t.stranded.length;
+        sink = nCharStates;
+
+        stranded = Arrays.copyOf(t.stranded, nCharStates + 1);
+        containsOmega = Arrays.copyOf(t.containsOmega, nCharStates + 1);
+        for (int s = 0; s <= sink; ++s) {
+            int[] row = new int[WIDTH];
+            Arrays.fill(row, DEAD);
+            rows.add(row);
+        }
+        for (int s = 0; s < nCharStates; ++s) build(s);
+
+        init = new int[charWidth];
+        for (int k = 0; k < charWidth; ++k) init[k] = entryOf(charTable[k]);
+
+        if ((long) rows.size() * WIDTH > Integer.MAX_VALUE >>> FLAG_BITS) {
+            throw new EngineStyle.ConstructionException(
+                "UTF-8 DFA transition table too large: " + rows.size() + " nodes");
+        }
+        table = new int[rows.size() * WIDTH];
+        for (int n = 0; n < rows.size(); ++n) {
+            System.arraycopy(rows.get(n), 0, table, n * WIDTH, WIDTH);
+        }
+        rows.clear();
+        made.clear();
+        logger.log(level, this.toString());
+    }
+
+    /**
+     * @return the Utf8DFA of <code>nfa</code>.
+     * @throws EngineStyle.ConstructionException
+     *             if its pattern has boundaries to check within a match, or
+     *             possessive quantifiers; or if the DFA would be
+     *             too large.
+     */
+    static Utf8DFA newUtf8DFA(NFA nfa) {
+        if (nfa.requirements.contains(Pattern.Feature.DYNAMIC_BOUNDARIES)
+                || nfa.requirements.contains(Pattern.Feature.POSSESSIVE_QUANTIFIERS)) {
+            throw new EngineStyle.ConstructionException(
+                "no UTF-8 DFA for: " + nfa.requirements);
+        }
+        return new Utf8DFA(nfa);
+    }
+
+    /**
+     * @return the entry of the init symbol <code>initStatus</code>.
+     */
+    int init(int initStatus) {
+        return init[alphabet.classOf(initStatus)];
+    }
+
+    /**
+     * @return true if the entry leads to a char state, rather than into the
+     * middle of a code point.
+     */
+    boolean atCodePoint(int entry) {
+        return (entry >>> FLAG_BITS) < (sink + 1) * WIDTH;
+    }
+
+    /*
+     * the entry of the char table, renumbered.
+     */
+    private int entryOf(int e) {
+        if (e == DEAD) return DEAD;
+        return ((e >>> FLAG_BITS) / charWidth * WIDTH) << FLAG_BITS | (e & FLAGS);
+    }
+
+    private int charEntry(int s, int k) {
+        return charTable[s * charWidth + k];
+    }
+
+    /*
+     * fills in the row of char state s.
+     */
+    private void build(int s) {
+        partition(s);
+        int[] row = rows.get(s);
+        for (int b = 0; b < 0x80; ++b) row[b] = entryAt(b, 0);
+        for (int b = 0xC0; b < 0xE0; ++b) row[b] = node((b & 0x1F) << 6, 1, 0x80);
+        for (int b = 0xE0; b < 0xF0; ++b) row[b] = node((b & 0x0F) << 12, 2, 0x800);
+        for (int b = 0xF0; b < 0xF8; ++b) row[b] = node((b & 0x07) << 18, 3, 0x10000);
+        row[EOF_COLUMN] = entryOf(charEntry(s, alphabet.classOf(EOF)));
+    }
+
+    /*
+     * the entries of char state s by code point: those of the BMP from its
+     * row, those past it from the two steps of their surrogates.
+     */
+    private void partition(int s) {
+        List<int[]> pieces = new ArrayList<int[]>();
+        for (int k = 1; k < charWidth; ++k) {
+            int e = entryOf(charEntry(s, k));
+            if (e == DEAD) continue;
+            for (CharClass.Interval iv : alphabet.charClass(k).intervals()) {
+                add(pieces, Math.max(iv.begin, 0),
+                    Math.min(iv.end, Character.MIN_SURROGATE), e);
+                add(pieces, Math.max(iv.begin, Character.MAX_SURROGATE + 1),
+                    Math.min(iv.end, CharClass.CHAR_END), e);
+            }
+        }
+        for (int kh = 1; kh < charWidth; ++kh) {
+            int e1 = charEntry(s, kh);
+            if (e1 == DEAD) continue;
+            for (CharClass.Interval hi : alphabet.charClass(kh).intervals()) {
+                int h1 = Math.max(hi.begin, Character.MIN_HIGH_SURROGATE);
+                int h2 = Math.min(hi.end, Character.MAX_HIGH_SURROGATE + 1);
+                if (h1 >= h2) continue;
+                if ((e1 & PURE_ACCEPT) != 0) {
+                    add(pieces, h1, h2, Character.MIN_LOW_SURROGATE,
+                        Character.MAX_LOW_SURROGATE + 1, entryOf(e1));
+                    continue;
+                }
+                int s1 = (e1 >>> FLAG_BITS) / charWidth;
+                for (int kl = 1; kl < charWidth; ++kl) {
+                    int e2 = charEntry(s1, kl);
+                    /*
+                     * a match may not end between the surrogates: only one
+                     * which ends before them counts.
+                     */
+                    int e = e2 != DEAD ? entryOf(e2) & ~FLAGS | e1 & ACCEPT
+                        : (e1 & ACCEPT) != 0 ? (sink * WIDTH) << FLAG_BITS | FLAGS
+                        : DEAD;
+                    if (e == DEAD) continue;
+                    for (CharClass.Interval lo : alphabet.charClass(kl).intervals()) {
+                        add(pieces, h1, h2,
+                            Math.max(lo.begin, Character.MIN_LOW_SURROGATE),
+                            Math.min(lo.end, Character.MAX_LOW_SURROGATE + 1), e);
+                    }
+                }
+            }
+        }
+        Collections.sort(pieces, new Comparator<int[]>() {
+            public int compare(int[] p, int[] q) {
+                return p[0] < q[0] ? -1 : p[0] > q[0] ? 1 : 0;
+            }
+        });
+        List<int[]> merged = new ArrayList<int[]>();
+        int at = 0;
+        for (int[] p : pieces) {
+            if (p[0] > at) append(merged, at, p[0], DEAD);
+            append(merged, p[0], p[1], p[2]);
+            at = p[1];
+        }
+        if (at < CP_END) append(merged, at, CP_END, DEAD);
+        bounds = new int[merged.size() + 1];
+        entries = new int[merged.size()];
+        for (int j = 0; j < merged.size(); ++j) {
+            bounds[j] = merged.get(j)[0];
+            entries[j] = merged.get(j)[2];
+        }
+        bounds[merged.size()] = CP_END;
+    }
+
+    private static void add(List<int[]> pieces, int begin, int end, int e) {
+        if (begin < end) pieces.add(new int[] {begin, end, e});
+    }
+
+    /*
+     * the supplementary code points of the surrogate pairs [h1, h2) x [l1, l2).
+     */
+    private static void add(List<int[]> pieces, int h1, int h2, int l1, int l2, int e) {
+        if (l1 >= l2) return;
+        if (l1 == Character.MIN_LOW_SURROGATE && l2 == Character.MAX_LOW_SURROGATE + 1) {
+            add(pieces, Character.toCodePoint((char) h1, (char) l1),
+                Character.toCodePoint((char) (h2 - 1), (char) (l2 - 1)) + 1, e);
+            return;
+        }
+        for (int h = h1; h < h2; ++h) {
+            add(pieces, Character.toCodePoint((char) h, (char) l1),
+                Character.toCodePoint((char) h, (char) (l2 - 1)) + 1, e);
+        }
+    }
+
+    private static void append(List<int[]> merged, int begin, int end, int e) {
+        int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+        if (last != null && last[2] == e && last[1] == begin) {
+            last[1] = end;
+        } else {
+            merged.add(new int[] {begin, end, e});
+        }
+    }
+
+    /*
+     * the entry of code point cp, DEAD if it is encoded below min, its
+     * shortest encoding, or is past the last code point.
+     */
+    private int entryAt(int cp, int min) {
+        if (cp < min || cp >= CP_END) return DEAD;
+        int j = Arrays.binarySearch(bounds, cp);
+        return entries[j >= 0 ? j : -j - 2];
+    }
+
+    /*
+     * the entry common to all of [lo, hi), or NONUNIFORM.
+     */
+    private int uniform(int lo, int hi, int min) {
+        if (hi <= min || lo >= CP_END) return DEAD;
+        if (lo < min) return NONUNIFORM;
+        int j = Arrays.binarySearch(bounds, lo);
+        if (j < 0) j = -j - 2;
+        return bounds[j + 1] >= hi ? entries[j] : NONUNIFORM;
+    }
+
+    /*
+     * the entry of the node which reads the n continuation bytes of the code
+     * points from lo.
+     */
+    private int node(int lo, int n, int min) {
+        int size = 1 << (6 * n);
+        int e = uniform(lo, lo + size, min);
+        if (e == DEAD) return DEAD;
+        int[] row = new int[WIDTH];
+        Arrays.fill(row, DEAD);
+        for (int j = 0; j < 0x40; ++j) {
+            row[0x80 + j] = e != NONUNIFORM ? n == 1 ? e : chain(e, n - 1)
+                : n == 1 ? entryAt(lo + j, min)
+                : node(lo + (j << (6 * (n - 1))), n - 1, min);
+        }
+        return make(row);
+    }
+
+    /*
+     * the entry of n continuation bytes, of any value, then e.
+     */
+    private int chain(int e, int n) {
+        int[] row = new int[WIDTH];
+        Arrays.fill(row, DEAD);
+        Arrays.fill(row, 0x80, 0xC0, n == 1 ? e : chain(e, n - 1));
+        return make(row);
+    }
+
+    private int make(int[] row) {
+        Row key = new Row(row);
+        Integer n = made.get(key);
+        if (n == null) {
+            made.put(key, n = rows.size());
+            rows.add(row);
+        }
+        return (n * WIDTH) << FLAG_BITS;
+    }
+
+    private static final class Row {
+        private final int[] row;
+        private final int hash;
+
+        Row(int[] row) {
+            this.row = row;
+            this.hash = Arrays.hashCode(row);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Row && Arrays.equals(row, ((Row) o).row);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UTF-8 DFA: " + nCharStates + " char states, "
+            + (table.length / WIDTH - nCharStates - 1) + " byte nodes"
+            + (findLoop ? ", find loop" : "");
+    }
+}
@@ -54,12 +54,15 @@
  * Certain transformations are performed which attempt to eliminate the
  * requirement for (typically slower) NFA based Engines where that requirement
  * is driven by Boundary (^, $, \z, etc) matching. Capturing groups are
- * supported by the ("tagged") NFA based engine. A flag is provided to turn off
- * capturing groups for a pattern; for applications which require a long search
- * for a short pattern ("needle in a haystack"), it may make sense to construct
- * two patterns - one DFA based without capturing groups, and NFA based with the
- * capturing groups, and run the NFA based pattern on the results of the DFA
- * based pattern match in order to recover the capturing groups.
+ * supported by the ("tagged") NFA based engine, and by a tagged DFA based
+ * engine, which determinizes the tags into register operations. A flag is provided to turn off
+ * capturing groups for a pattern. Where the rest of the pattern allows, the
+ * hybrid Engine searches with a DFA of the pattern without its capturing
+ * groups, and runs the NFA only on each match found, to recover the groups;
+ * this makes a long search for a short pattern ("needle in a haystack") about
+ * as fast with capturing groups as without. Where only the NFA will do, a
+ * backtracking Engine - kept linear by a bitmap of the NFA States visited at
+ * each position - takes its place for inputs short enough.
  * <p>
  * The engine framework is extensible, and more exotic engine implementations
  * (e.g. implementations which compile an automaton down to java byte code)
@@ -0,0 +1,60 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+import java.util.Random;
+
+public class AhoCorasickTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(AhoCorasickTestCase.class);
+    }
+
+    public AhoCorasickTestCase(String name) {
+        super(name);
+    }
+
+    public void testAhoCorasick() {
+        String[] regexes = {
+            "fo|foo|bar|ba", "abcd|bc|bcde", "a|ab|abc|b", "he|she|his|hers",
+            "x|xy|y|yx|xyx"
+        };
+        for (int flags : new int[] {0, Pattern.X_LEFTMOST_LONGEST, 
+                Pattern.CASE_INSENSITIVE}) {
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex, flags, EngineStyle.AHO_CORASICK);
+                assertTrue(p.engine.hasFindLoop());
+                String input = "ushers " + randomInput(54L, "abcdefhorsxyABFO", 500);
+                assertSameFinds(p, input);
+            }
+        }
+        assertEquals(EngineStyle.AHO_CORASICK, 
+            Pattern.compile("cat|dog|bird", Pattern.CASE_INSENSITIVE).style());
+        for (String regex : new String[] {"fo+|bar", "(foo)|bar", "\\bfoo|bar", "foo|"}) {
+            assertFalse(regex, 
+                Pattern.compile(regex).style() == EngineStyle.AHO_CORASICK);
+        }
+        /*
+         * thousands of alternatives: no DFA to build.
+         */
+        StringBuilder sb = new StringBuilder();
+        Random rnd = new Random(55L);
+        for (int i = 0; i < 5000; ++i) {
+            if (i > 0) sb.append('|');
+            sb.append(Integer.toString(rnd.nextInt(), 36).replace('-', 'z'));
+        }
+        sb.append("|needle");
+        Pattern p = Pattern.compile(sb.toString());
+        assertEquals(EngineStyle.AHO_CORASICK, p.style());
+        Matcher m = p.matcher("hay-hay-needle-hay");
+        assertTrue(m.find());
+        assertEquals("needle", m.group());
+        assertFind("Foo|foobar", Pattern.CASE_INSENSITIVE, "xFOOBAR fo", 
+            "(1,4){ff}", "{tf}");
+    }
+}
@@ -0,0 +1,69 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.assertSameGroups;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class BacktrackTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(BacktrackTestCase.class);
+    }
+
+    public BacktrackTestCase(String name) {
+        super(name);
+    }
+
+    public void testBacktrack() {
+        String[] regexes = {
+            "(a+)(b*)c", "(a|ab)(c|bcd)(d*)", "x((a)|b)+?y|(b)+", "((a)|(b))*",
+            "(\\w+|\\d+)\\b\\s*=\\s*(\\w*)", "foo($)?", "(a)\\b(b)?|\\G(x)", "(?:b|$)*"
+        };
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex, EngineStyle.BACKTRACK);
+            String input = "ab = c foo " + randomInput(52L, "ab cdxy=", 500);
+            assertSameFinds(p, input);
+            assertSameGroups(p, input);
+        }
+        try {
+            Pattern.compile("(a)", Pattern.X_LEFTMOST_LONGEST, 
+                EngineStyle.BACKTRACK);
+            fail();
+        } catch (EngineStyle.ConstructionException e) {
+        }
+        /*
+         * DYNAMIC picks it per input, in place of the NFA.
+         */
+        Pattern p = Pattern.compile("(\\w+|\\d+)\\b\\s*=\\s*(\\w*)");
+        assertEquals(EngineStyle.NFA_TABLE, p.style());
+        Matcher m = p.matcher("id = 7");
+        assertEquals(EngineStyle.BACKTRACK, m.engine.style);
+        String input = randomInput(53L, "ab =", BacktrackEngine.BIT_BUDGET);
+        m.reset(input);
+        assertEquals(EngineStyle.NFA_TABLE, m.engine.style);
+        assertSameGroups(p, input);
+        m.reset("x = y");
+        assertTrue(m.find());
+        assertEquals("y", m.group(2));
+        assertEquals(EngineStyle.BACKTRACK, m.engine.style);
+        assertNull(Pattern.compile("(a+)(b*)c").shortInputEngine);
+        /*
+         * the budget, as the system property sets it.
+         */
+        assertEquals(256 * 1024, BacktrackEngine.bitBudget(null));
+        assertEquals(1000, BacktrackEngine.bitBudget(" 1000"));
+        assertEquals(256 * 1024, BacktrackEngine.bitBudget("-1"));
+        assertEquals(256 * 1024, BacktrackEngine.bitBudget("lots"));
+        int budget = BacktrackEngine.BIT_BUDGET;
+        try {
+            BacktrackEngine.BIT_BUDGET = BacktrackEngine.bitBudget("0");
+            m.reset("x = y");
+            assertEquals(EngineStyle.NFA_TABLE, m.engine.style);
+        } finally {
+            BacktrackEngine.BIT_BUDGET = budget;
+        }
+    }
+}
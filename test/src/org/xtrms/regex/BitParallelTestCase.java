@@ -0,0 +1,43 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class BitParallelTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(BitParallelTestCase.class);
+    }
+
+    public BitParallelTestCase(String name) {
+        super(name);
+    }
+
+    public void testBitParallel() {
+        String[] regexes = {
+            "ab|cb", "a\\z|abc", "a+?b", "(?:a|b)*?c", "b(?:a|ab)*",
+            "x(?:a|b)*a(?:a|b)"
+        };
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex, Pattern.X_LEFTMOST_LONGEST,
+                EngineStyle.BIT_PARALLEL);
+            assertTrue(p.engine.hasFindLoop());
+            assertSameFinds(p, randomInput(51L, "abcx", 300));
+            assertSameFinds(p, regex.substring(0, 1) + "abc");
+        }
+        StringBuilder sb = new StringBuilder("a");
+        for (int i = 0; i < BitParallelEngine.MAX_STATES; ++i) sb.append("|b");
+        try {
+            Pattern.compile(sb.toString(), Pattern.X_LEFTMOST_LONGEST,
+                EngineStyle.BIT_PARALLEL);
+            fail();
+        } catch (EngineStyle.ConstructionException e) {
+        }
+        assertFind("a\\z|abc", Pattern.X_LEFTMOST_LONGEST, "xabcxa",
+            "(1,4){ff}", "(5,6){tt}", "{tf}");
+    }
+}
@@ -0,0 +1,95 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+public class ByteMatcherTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(ByteMatcherTestCase.class);
+    }
+
+    public ByteMatcherTestCase(String name) {
+        super(name);
+    }
+
+    private static int utf8Length(String s) throws IOException {
+        return s.getBytes("UTF-8").length;
+    }
+
+    /*
+     * the char Matcher is the oracle, its offsets converted to bytes - but
+     * for its empty matches between the surrogates of a pair.
+     */
+    private static void assertSameByteFinds(Pattern p, String input) 
+            throws IOException {
+        byte[] bytes = input.getBytes("UTF-8");
+        ByteMatcher[] bms = {
+            new ByteMatcher(bytes, p),
+            new ByteMatcher(Channels.newChannel(new ByteArrayInputStream(bytes)), p)
+        };
+        for (ByteMatcher bm : bms) {
+            Matcher m = p.matcher(input);
+            while (m.find()) {
+                if (m.start() > 0 && m.start() < input.length()
+                        && Character.isLowSurrogate(input.charAt(m.start()))) {
+                    continue;
+                }
+                String msg = p + " in " + input + " at " + m.start();
+                assertTrue(msg, bm.find());
+                assertEquals(msg, utf8Length(input.substring(0, m.start())), bm.start());
+                assertEquals(msg, utf8Length(input.substring(0, m.end())), bm.end());
+                assertEquals(msg, m.group(), bm.group());
+            }
+            assertFalse(p + " in " + input, bm.find());
+            assertNull(bm.ioException());
+        }
+    }
+
+    public void testByteMatcher() throws IOException {
+        String[] symbols = {"a", "b", " ", "f", "o", "\u00e9", "\u0100", "\u4e2d", 
+            "\ud83d\ude00", "\n", "x", "\u07ff", "\uffef"};
+        String[] regexes = {
+            "\\w+", "[^a-z ]+", "fo+|b", "\u00e9+|\u4e2d", "[\u0100-\u07ff]+",
+            "x|\ud83d\ude00", "^a", "\\bfo", "a.*b", "\u00c9",
+            "[^\\x00-\\x7f]+", "(fo)(o)?", "o*", "a|ab", "\\Gb", "[\\s\ud83d\ude00]+",
+            "o$", "\\bfo\\b", "\u4e2d\\z", "(a|b)*abb"
+        };
+        int capacity = ByteMatcher.BYTE_BUFFER_CAPACITY_INIT;
+        ByteMatcher.BYTE_BUFFER_CAPACITY_INIT = 8;
+        try {
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex, Pattern.X_UTF8
+                    | (regex.equals("\u00c9") ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0));
+                for (long seed = 0; seed < 20; ++seed) {
+                    Random random = new Random(seed);
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < 40; ++i) {
+                        sb.append(symbols[random.nextInt(symbols.length)]);
+                    }
+                    assertSameByteFinds(p, sb.toString());
+                }
+                assertSameByteFinds(p, "");
+            }
+        } finally {
+            ByteMatcher.BYTE_BUFFER_CAPACITY_INIT = capacity;
+        }
+        assertFalse(new ByteMatcher(new byte[] {'a', (byte) 0xC3, 'b'}, 
+            Pattern.compile("a.b", Pattern.X_UTF8)).find());
+        try {
+            Pattern.compile("a\\Bb", Pattern.X_UTF8);
+            fail();
+        } catch (EngineStyle.ConstructionException e) {
+        }
+        try {
+            new ByteMatcher(new byte[0], Pattern.compile("foo"));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+public class CharRingTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(CharRingTestCase.class);
+    }
+
+    public CharRingTestCase(String name) {
+        super(name);
+    }
+
+    /*
+     * a ring wrapping around, fed a few chars at a time.
+     */
+    public void testCharRing() throws IOException {
+        String input = randomInput(2L, "abcdefgh", 1000);
+        Reader r = new StringReader(input) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 3));
+            }
+        };
+        CharRing ring = new CharRing(5);
+        assertEquals(8, ring.capacity());
+        Random random = new Random(3L);
+        int base = 0;
+        int n;
+        while ((n = ring.fill(r, 16)) >= 0) {
+            assertTrue(n > 0);
+            assertEquals(input.substring(base, base + ring.length()), ring.toString());
+            int drop = random.nextInt(ring.length() + 1);
+            ring.drop(drop);
+            base += drop;
+            assertTrue(ring.capacity() <= 16);
+        }
+        assertEquals(input.length(), base + ring.length());
+        ring.release();
+
+        StreamMatcher sm = new StreamMatcher(new StringReader(
+            "b aaaaaaaaaaaaaaaaaaaaaaaaaaaa b"), Pattern.compile("a+"));
+        sm.useBufferSizes(4, 8);
+        try {
+            sm.findNext();
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        sm = new StreamMatcher(new StringReader(
+            "b aaaaaaaaaaaaaaaaaaaaaaaaaaaa b"), Pattern.compile("a+"));
+        sm.useBufferSizes(4, 32);
+        assertTrue(sm.findNext());
+        assertEquals(28, sm.group().length());
+        sm.close();
+    }
+}
@@ -0,0 +1,203 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class DFATestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(DFATestCase.class);
+    }
+
+    public DFATestCase(String name) {
+        super(name);
+    }
+
+    /*
+     * the anchored DFA, without the find loop.
+     */
+    private static DFA dfaFor(String regex) {
+        return new DFA(Pattern.NFAfor(Pattern.compile(regex)));
+    }
+
+    public void testMinimize() {
+        DFA dfa = dfaFor("ab|cb");
+        assertEquals(dfa.unminimizedSize() - 1, dfa.size());
+        dfa = dfaFor("foobaz|barbaz|quxbaz");
+        assertEquals(dfa.unminimizedSize() - 6, dfa.size());
+        assertFind("foobaz|barbaz|quxbaz", "quxbazfoobazbarba", 
+            "(0,6)", "(6,12)", "");
+        assertFind("ab|cb", "xxcbab", "(2,4)", "(4,6)", "");
+        assertFind("(?:[0-9]{1,3}\\.){3}[0-9]{1,3}", "ip 10.0.0.255.7 ",
+            "(3,13)", "");
+        /*
+         * states differing only in the flags hitEnd and requireEnd are
+         * computed from must not be merged.
+         */
+        assertFind("a\\z|abc", "a", "(0, 1){tt}");
+        assertFind("a\\z|abc", "abc", "(0, 3){ff}");
+    }
+
+    public void testAlphabet() {
+        Alphabet alphabet = dfaFor("[a-c][xy]|[b-d][xy]").alphabet;
+        assertEquals(alphabet.classOf('b'), alphabet.classOf('c'));
+        assertEquals(alphabet.classOf('x'), alphabet.classOf('y'));
+        assertFalse(alphabet.classOf('a') == alphabet.classOf('b'));
+        assertFalse(alphabet.classOf('c') == alphabet.classOf('d'));
+        assertFind("[a-c][xy]|[b-d][xy]", "axdy\u0100bycz",
+            "(0,2)", "(2,4)", "(5,7)", "");
+        assertFind("[\u0100-\uffff]+z", "a\u0101\uffffz\uabcd", "(1,4)", "");
+    }
+
+    public void testFindLoop() {
+        String[] regexes = {
+            "ab|cb", "a\\z|abc", "(?:ab)+c?|b*", "a+?b", "(?:a|b)*?c", 
+            "b(?:a|ab)*"
+        };
+        for (EngineStyle style 
+                : new EngineStyle[] {EngineStyle.DFA_TABLE, EngineStyle.DFA_LAZY}) {
+            for (int flags : new int[] {0, Pattern.X_LEFTMOST_LONGEST}) {
+                for (String regex : regexes) {
+                    Pattern p = Pattern.compile(regex, flags, style);
+                    assertTrue(p.engine.hasFindLoop());
+                    assertSameFinds(p, randomInput(46L, "abcx", 300));
+                    assertSameFinds(p, regex.substring(0, 1) + "abc");
+                }
+            }
+            assertFalse(Pattern.compile("\\bab|c", style).engine.hasFindLoop());
+        }
+        assertFind("a\\z|abc", "xabcxa", "(1,4){ff}", "(5,6){tt}", "{tf}");
+    }
+
+    /*
+     * With a start anchor there is no find loop, and find() bumps along:
+     * the end of input, once an attempt hits it, stays hit - even where
+     * the last attempt, at the end, fails on its anchors alone. Every
+     * Engine reports it alike.
+     */
+    public void testAnchoredHitEnd() {
+        String[] regexes = {
+            "^ab", "^a", "\\bca", "\\bab\\b", "\\Bab", "\\b(?:ab|c)", "\\B", "\\bab"
+        };
+        String[] inputs = {"", "a", "xa", "c", " a", "ab", "a b", "ba", "  "};
+        EngineStyle[] styles = {
+            EngineStyle.DYNAMIC, EngineStyle.DFA_TABLE, EngineStyle.DFA_LAZY, 
+            EngineStyle.TDFA_TABLE, EngineStyle.ONE_PASS
+        };
+        for (String regex : regexes) {
+            assertFalse(Pattern.compile(regex).engine.hasFindLoop());
+            for (EngineStyle style : styles) {
+                Pattern p = Pattern.compile(regex, style);
+                for (String input : inputs) {
+                    String message = style + ": " + regex + " / " + input;
+                    Matcher m = p.matcher(input);
+                    java.util.regex.Matcher jm = 
+                        java.util.regex.Pattern.compile(regex).matcher(input);
+                    while (jm.find()) {
+                        assertTrue(message, m.find());
+                        assertEquals(message, jm.end(), m.end());
+                        assertEquals(message, jm.hitEnd(), m.hitEnd());
+                    }
+                    assertFalse(message, m.find());
+                    assertEquals(message, jm.hitEnd(), m.hitEnd());
+                }
+            }
+        }
+    }
+
+    public void testReverse() {
+        Pattern p = Pattern.compile("x(?:a|b)+?y|b+", EngineStyle.DFA_TABLE);
+        assertNotNull(((DFAtableEngine) p.engine).reverse());
+        assertSameFinds(p, randomInput(47L, "abxy", 500));
+        p = Pattern.compile("a\\z|abc", EngineStyle.DFA_TABLE);
+        assertNull(((DFAtableEngine) p.engine).reverse());
+        /*
+         * the reverse scan must not run back past the start of the find.
+         */
+        Matcher m = Pattern.compile("a+b", EngineStyle.DFA_TABLE).matcher(
+            "aab");
+        assertTrue(m.find(1));
+        assertEquals(1, m.start());
+        m.region(2, 3);
+        assertFalse(m.find());
+    }
+
+    public void testLazyExplosive() {
+        String regex = "(?:a|b)*a(?:a|b){20}";
+        Pattern p = Pattern.compile(regex);
+        assertEquals(EngineStyle.DFA_LAZY, p.style());
+        assertSameFinds(p, randomInput(42L, "ab", 500));
+        assertSameFinds(p, randomInput(43L, "ababababababc", 2000));
+    }
+
+    /*
+     * the eager DFA is given up on early, and once the lazy one's cache
+     * thrashes the NFA takes over: neither compile nor find may cost much
+     * more than the NFA's (the bounds are loose, for slow machines).
+     */
+    public void testLazyThrash() {
+        String regex = "(?:a|b)*a(?:a|b){20}";
+        String input = randomInput(46L, "ab", 200 * 1000);
+        Pattern nfa = Pattern.compile(regex, EngineStyle.NFA_TABLE);
+        long t0 = System.nanoTime();
+        Matcher m = nfa.matcher(input);
+        while (m.find());
+        long nfaFind = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        Pattern p = Pattern.compile(regex);
+        long compile = System.nanoTime() - t0;
+        assertEquals(EngineStyle.DFA_LAZY, p.style());
+        t0 = System.nanoTime();
+        m = p.matcher(input);
+        while (m.find());
+        long find = System.nanoTime() - t0;
+        assertTrue(((DFAlazyEngine) p.engine).thrashed());
+        assertTrue("compile " + compile / 1000000 + " ms", 
+            compile < 500 * 1000000L);
+        assertTrue("find " + find / 1000000 + " ms, NFA " + nfaFind / 1000000 
+            + " ms", find < 3 * nfaFind + 250 * 1000000L);
+        assertSameFinds(p, input);
+    }
+
+    public void testLazyFlush() {
+        int budget = DFAlazyEngine.CACHE_BUDGET;
+        DFAlazyEngine.CACHE_BUDGET = 1;
+        try {
+            Pattern p = Pattern.compile("(?:a|b)*a(?:a|b){8}",
+                EngineStyle.DFA_LAZY);
+            assertSameFinds(p, randomInput(44L, "ab", 2000));
+            DFAlazyEngine engine = (DFAlazyEngine) p.engine;
+            assertTrue(engine.flushes() > 0);
+        } finally {
+            DFAlazyEngine.CACHE_BUDGET = budget;
+        }
+    }
+
+    public void testLazySharedCache() throws InterruptedException {
+        final Pattern p = Pattern.compile("(?:a|b)*a(?:a|b){12}",
+            EngineStyle.DFA_LAZY);
+        final String input = randomInput(45L, "ab", 3000);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        assertSameFinds(p, input);
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+        assertNull(String.valueOf(failure[0]), failure[0]);
+    }
+}
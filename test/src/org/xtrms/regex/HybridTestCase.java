@@ -0,0 +1,52 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.assertSameGroups;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class HybridTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(HybridTestCase.class);
+    }
+
+    public HybridTestCase(String name) {
+        super(name);
+    }
+
+    public void testHybrid() {
+        String[] regexes = {
+            "(a+)(b*)c", "(a|ab)(c|bcd)(d*)", "x((a)|b)+?y|(b)+", "(?:(a)|b)*c"
+        };
+        for (int flags : new int[] {0, Pattern.X_LEFTMOST_LONGEST}) {
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex, flags);
+                assertEquals(EngineStyle.HYBRID, p.style());
+                String input = randomInput(48L, "abcdxy", 500);
+                assertSameFinds(p, input);
+                assertSameGroups(p, input);
+            }
+        }
+        assertFalse(EngineStyle.HYBRID == Pattern.compile("(a)\\b ").style());
+        /*
+         * the DFA and the groups engine run the one NFA, so agree on the
+         * span wherever a nullable loop leaves a choice.
+         */
+        String input = randomInput(7L, "abcx", 200);
+        for (int n = 0; n < 20; ++n) {
+            Pattern p = Pattern.compile("[ab]+?(?:.(c*(?:a??b??)??)+.?)[^a]{1,2}");
+            assertEquals(EngineStyle.HYBRID, p.style());
+            Matcher m = p.matcher(input);
+            while (m.find()) {
+                assertTrue(m.start() <= m.start(1) || m.start(1) == -1);
+                assertTrue(m.end(1) <= m.end());
+            }
+        }
+        assertFind("(a+)(b*)c", "xaabcabc", "(1,5)(1,3)(3,4)", "(5,8)(5,6)(6,7)", 
+            "");
+    }
+}
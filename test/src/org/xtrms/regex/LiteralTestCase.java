@@ -0,0 +1,51 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+
+public class LiteralTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(LiteralTestCase.class);
+    }
+
+    public LiteralTestCase(String name) {
+        super(name);
+    }
+
+    public void testPrefix() {
+        assertEquals("ERROR: ", 
+            Pattern.compile("ERROR: (\\w+)").prefix.toString());
+        assertEquals(7, Pattern.compile("error: (\\w+)", 
+            Pattern.CASE_INSENSITIVE).prefix.length());
+        assertEquals("[bc]a[rt]", Pattern.compile("\\b(?:bar|cat)").prefix.toString());
+        assertEquals("ab", Pattern.compile("(ab)+c").prefix.toString());
+        assertNull(Pattern.compile("a*b").prefix);
+        assertNull(Pattern.compile("\\w+").prefix);
+        /*
+         * a partial prefix at the end still hits it.
+         */
+        assertFind("abc", "xxabcxab", "(2, 5){ff}", "{tf}");
+        assertFind("ERROR: (\\w+)", "xxERRxERROR: disk", 
+            "(6, 17)(13, 17){tf}", "{tf}");
+        assertFind("ab\\z", "ab xab", "(4, 6){tt}");
+    }
+
+    public void testFactor() {
+        Pattern p = Pattern.compile("\\d+\\.\\d+\\.\\d+ timeout");
+        assertEquals(" timeout", p.factor.toString());
+        assertEquals(-1, p.maxMatchLength);
+        assertEquals("bar", Pattern.compile("(?:a|b)x?bar\\d").factor.toString());
+        assertEquals("[xy]ab", Pattern.compile("\\w+(?:xab|yab)").factor.toString());
+        assertEquals(5, Pattern.compile("\\w{2}(?:ab|cde)").maxMatchLength);
+        assertNull(Pattern.compile("ERROR: (\\w+)").factor);    // the prefix
+        assertNull(Pattern.compile("(?:ab|cd)\\w").factor);
+        assertNull(Pattern.compile("a*b?").factor);
+        assertFind("\\d+\\.\\d+ timeout", "1.2 ok 3.45 timeout 6.7 timeout",
+            "(7, 19){ff}", "(20, 31){ff}", "{tf}");
+        assertFind("\\d+\\.\\d+ timeout", "1.2 ok 3.45 timed out", "{tf}");
+        assertFind("\\w\\wxyz", "ab xyz abxyz abxy", "(7, 12){ff}", "{tf}");
+    }
+}
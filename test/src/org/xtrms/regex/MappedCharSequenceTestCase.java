@@ -0,0 +1,64 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+public class MappedCharSequenceTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MappedCharSequenceTestCase.class);
+    }
+
+    public MappedCharSequenceTestCase(String name) {
+        super(name);
+    }
+
+    private static String replaceAll(StreamMatcher sm) {
+        StringWriter w = new StringWriter();
+        sm.setResult(w);
+        sm.replaceAll("<$0>");
+        sm.close();
+        assertNull(sm.ioException());
+        return w.toString();
+    }
+
+    /*
+     * windows smaller than the matches, and boundaries across their edges.
+     */
+    public void testMappedFile() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            sb.append(i % 7 == 0 ? "fromage\u00e9tal\u00e9 " : "ofo f ").append(i);
+        }
+        sb.append(" f").append(randomInput(1, "f\u00e9", 100)).append(" 0");
+        String input = sb.toString();
+        File file = File.createTempFile("mapped", ".txt");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        out.write(input.getBytes("ISO-8859-1"));
+        out.close();
+        int windowInit = MappedCharSequence.WINDOW_INIT;
+        MappedCharSequence.WINDOW_INIT = 16;
+        try {
+            for (String regex : new String[] {"\\bf[a-z\u00e9]*\\b", "f\\w*", "\\d+$"}) {
+                Pattern p = Pattern.compile(regex);
+                assertEquals(regex, 
+                    replaceAll(new StreamMatcher(new StringReader(input), p)),
+                    replaceAll(new StreamMatcher(file, "ISO-8859-1", p)));
+            }
+        } finally {
+            MappedCharSequence.WINDOW_INIT = windowInit;
+        }
+        assertEquals("", replaceAll(new StreamMatcher(
+            File.createTempFile("empty", ".txt"), "ISO-8859-1", Pattern.compile("x"))));
+    }
+}
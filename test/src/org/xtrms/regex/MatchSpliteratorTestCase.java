@@ -0,0 +1,60 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+import java.util.regex.MatchResult;
+import java.util.stream.Collectors;
+
+public class MatchSpliteratorTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(MatchSpliteratorTestCase.class);
+    }
+
+    public MatchSpliteratorTestCase(String name) {
+        super(name);
+    }
+
+    public void testResults() {
+        int splitMin = MatchSpliterator.SPLIT_MIN;
+        MatchSpliterator.SPLIT_MIN = 8;
+        try {
+            String[] regexes = {
+                "ab|a", "a?", "aa", "b(a|c){1,3}", "\\bab", "(a)(b)?c", "^a|b$", "\\Ga", "a*b"
+            };
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex);
+                for (long seed = 0; seed < 10; ++seed) {
+                    assertSameResults(p, randomInput(seed, "abc ", 400));
+                    assertSameResults(p, randomInput(seed, "aab", 400));
+                }
+                assertSameResults(p, "");
+                assertSameResults(p, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+            }
+        } finally {
+            MatchSpliterator.SPLIT_MIN = splitMin;
+        }
+        assertNotNull(new MatchSpliterator(Pattern.compile("ab|a"), 
+            randomInput(0L, "abc", 1 << 16)).trySplit());
+        assertNull(new MatchSpliterator(Pattern.compile("a*b"), 
+            randomInput(0L, "abc", 1 << 16)).trySplit());
+    }
+
+    private static void assertSameResults(Pattern p, String input) {
+        StringBuilder sb = new StringBuilder();
+        Matcher m = p.matcher(input);
+        while (m.find()) sb.append(spanOf(m));
+        String expected = sb.toString();
+        assertEquals(p.pattern(), expected, p.results(input)
+            .map(MatchSpliteratorTestCase::spanOf).collect(Collectors.joining()));
+        assertEquals(p.pattern(), expected, p.results(input).parallel()
+            .map(MatchSpliteratorTestCase::spanOf).collect(Collectors.joining()));
+    }
+
+    private static String spanOf(MatchResult r) {
+        return "(" + r.start() + "," + r.end() + ")";
+    }
+}
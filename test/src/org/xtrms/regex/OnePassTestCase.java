@@ -0,0 +1,45 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.assertSameGroups;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class OnePassTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(OnePassTestCase.class);
+    }
+
+    public OnePassTestCase(String name) {
+        super(name);
+    }
+
+    public void testOnePass() {
+        String[] regexes = {
+            "(\\d+)-(\\d+)", "key=([^;]*);", "(a+)\\b(b*)", "x(a*?)y", 
+            "(a)|(b)c", "^(b+)|a"
+        };
+        for (int flags : new int[] {0, Pattern.X_LEFTMOST_LONGEST}) {
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex, flags);
+                assertTrue(regex, OnePassEngine.isOnePass(Pattern.NFAfor(p)));
+                p = Pattern.compile(regex, flags, EngineStyle.ONE_PASS);
+                String input = "12-34 key=x;y " 
+                    + randomInput(50L, "ab xy-12=;key", 500);
+                assertSameFinds(p, input);
+                assertSameGroups(p, input);
+            }
+        }
+        for (String regex : new String[] {"(a|ab)(c|bcd)", "(a*)a", "(a)|(a)b"}) {
+            assertFalse(regex, 
+                OnePassEngine.isOnePass(Pattern.NFAfor(Pattern.compile(regex))));
+        }
+        assertEquals(EngineStyle.ONE_PASS, 
+            Pattern.compile("(\\w+)\\b-(\\d+)").style());
+        assertFind("(\\w+)\\b-(\\d+)", "ab-12 c-", "(0,5)(0,2)(3,5)", "");
+    }
+}
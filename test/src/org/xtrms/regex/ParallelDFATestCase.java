@@ -0,0 +1,55 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelDFATestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(ParallelDFATestCase.class);
+    }
+
+    public ParallelDFATestCase(String name) {
+        super(name);
+    }
+
+    public void testParallelMatches() {
+        int chunkMin = ParallelDFA.CHUNK_MIN;
+        ParallelDFA.CHUNK_MIN = 16;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            String[] regexes = {
+                "(a|b)*abb", "[ab]*c?", "a|ab", "(a+)(b*)", "x*", "^[ab]+$", "(?:ab|ba)*"
+            };
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex);
+                for (long seed = 0; seed < 10; ++seed) {
+                    Random random = new Random(seed);
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < 200; ++i) sb.append(random.nextBoolean() ? "ab" : "ba");
+                    String input = sb.toString();
+                    assertSameMatches(p, input, pool);
+                    assertSameMatches(p, input + "abb", pool);
+                    assertSameMatches(p, input + "c", pool);
+                    assertSameMatches(p, randomInput(seed, "abc", 300), pool);
+                }
+                assertSameMatches(p, "ab", pool);
+                assertSameMatches(p, "", pool);
+            }
+            assertTrue(Pattern.compile("(a|b)*abb").matches(randomInput(0L, "ab", 500) + "abb", pool));
+        } finally {
+            ParallelDFA.CHUNK_MIN = chunkMin;
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameMatches(Pattern p, String input, ForkJoinPool pool) {
+        assertEquals(p.pattern() + " on " + input, p.matcher(input).matches(), 
+            p.matches(input, pool));
+    }
+}
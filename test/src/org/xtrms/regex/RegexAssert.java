@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import java.util.regex.MatchResult;
@@ -38,6 +39,11 @@ public final class RegexAssert {
                     || !style.capabilities().containsAll(requirements)) {
                 continue;
             }
+            try {
+                Pattern.compile(p.toString(), p.flags(), style);
+            } catch (EngineStyle.ConstructionException e) {
+                continue;   // e.g. ONE_PASS, where the pattern isn't one-pass
+            }
             ret.add(style);
         }
         assert !ret.isEmpty();
@@ -291,4 +297,49 @@ public final class RegexAssert {
         }
     }
     
+    /*
+     * random inputs, and Engines checked against the NFA
+     */
+    static String randomInput(long seed, String alphabet, int length) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * java.util.regex overflows the stack on these, so the NFA is the oracle.
+     */
+    static void assertSameFinds(Pattern p, CharSequence input) {
+        Matcher nm = Pattern.compile(p.toString(), p.flags(), 
+            EngineStyle.NFA_TABLE).matcher(input);
+        Matcher m = p.matcher(input);
+        int n = 0;
+        while (nm.find()) {
+            assertTrue(m.find());
+            assertEquals(nm.start(), m.start());
+            assertEquals(nm.end(), m.end());
+            assertEquals(nm.hitEnd(), m.hitEnd());
+            assertEquals(nm.requireEnd(), m.requireEnd());
+            ++n;
+        }
+        assertFalse(m.find());
+        assertEquals(nm.hitEnd(), m.hitEnd());
+        assertTrue(n > 0);
+    }
+
+    static void assertSameGroups(Pattern p, CharSequence input) {
+        Matcher nm = Pattern.compile(p.toString(), p.flags(), 
+            EngineStyle.NFA_TABLE).matcher(input);
+        Matcher m = p.matcher(input);
+        while (nm.find()) {
+            assertTrue(m.find());
+            for (int g = 0; g <= nm.groupCount(); ++g) {
+                assertEquals(nm.start(g), m.start(g));
+                assertEquals(nm.end(g), m.end(g));
+            }
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+public class StreamOffsetsTestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(StreamOffsetsTestCase.class);
+    }
+
+    public StreamOffsetsTestCase(String name) {
+        super(name);
+    }
+
+    /*
+     * offsets in the stream across buffer compactions, in chars and bytes.
+     */
+    public void testStreamOffsets() throws IOException {
+        String[] symbols = {"x", "y", "a", "\u00e9", "\u20ac", "1", " ", "\ud83d\ude00"};
+        int capacity = StreamMatcher.CHAR_BUFFER_CAPACITY_INIT;
+        StreamMatcher.CHAR_BUFFER_CAPACITY_INIT = 16;
+        try {
+            for (String regex : new String[] {"x[a\u00e9\u20ac]*y", "(\u20ac+)(\\d)?"}) {
+                Pattern p = Pattern.compile(regex);
+                for (long seed = 0; seed < 10; ++seed) {
+                    Random random = new Random(seed);
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < 300; ++i) {
+                        sb.append(symbols[random.nextInt(symbols.length)]);
+                    }
+                    String input = sb.toString();
+                    for (String charset : new String[] {"UTF-8", "UTF-16BE", "GB18030"}) {
+                        byte[] bytes = input.getBytes(charset);
+                        assertSameOffsets(p, input, charset, new StreamMatcher(Channels
+                            .newChannel(new ByteArrayInputStream(bytes)), charset, p));
+                    }
+                }
+            }
+        } finally {
+            StreamMatcher.CHAR_BUFFER_CAPACITY_INIT = capacity;
+        }
+        StreamMatcher sm = new StreamMatcher(new StringReader("abc"), Pattern.compile("b"));
+        assertTrue(sm.findNext());
+        assertEquals(1, sm.startOffset(0));
+        try {
+            sm.startByteOffset(0);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    private static void assertSameOffsets(Pattern p, String input, String charset, 
+            StreamMatcher sm) throws IOException {
+        Matcher m = p.matcher(input);
+        Charset cs = Charset.forName(charset);
+        while (m.find()) {
+            String msg = p + " in " + charset + " at " + m.start();
+            assertTrue(msg, sm.findNext());
+            for (int g = 0; g <= m.groupCount(); ++g) {
+                assertEquals(msg, m.start(g), sm.startOffset(g));
+                assertEquals(msg, m.end(g), sm.endOffset(g));
+                assertEquals(msg, m.start(g) < 0 ? -1 
+                    : input.substring(0, m.start(g)).getBytes(cs).length, sm.startByteOffset(g));
+                assertEquals(msg, m.end(g) < 0 ? -1 
+                    : input.substring(0, m.end(g)).getBytes(cs).length, sm.endByteOffset(g));
+            }
+        }
+        assertFalse(sm.findNext());
+    }
+}
@@ -0,0 +1,40 @@
+/* @LICENSE@
+ */
+
+package org.xtrms.regex;
+
+import static org.xtrms.regex.RegexAssert.assertFind;
+import static org.xtrms.regex.RegexAssert.assertSameFinds;
+import static org.xtrms.regex.RegexAssert.assertSameGroups;
+import static org.xtrms.regex.RegexAssert.randomInput;
+
+public class TDFATestCase extends AbstractRxTestCase {
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(TDFATestCase.class);
+    }
+
+    public TDFATestCase(String name) {
+        super(name);
+    }
+
+    public void testTDFA() {
+        String[] regexes = {
+            "(a+)(b*)c", "(a|ab)(c|bcd)(d*)", "x((a)|b)+?y|(b)+", "((a)|(b))*",
+            "(a|b)*?(b+)", "(a*?)(a*)(b?)", "((ab)|a)((bc)|c)?", "(b)(a)\\z|(c)"
+        };
+        for (int flags : new int[] {0, Pattern.X_LEFTMOST_LONGEST}) {
+            for (String regex : regexes) {
+                Pattern p = Pattern.compile(regex, flags, EngineStyle.TDFA_TABLE);
+                String input = randomInput(49L, "abcdxy", 500);
+                assertSameFinds(p, "ba" + input);
+                assertSameGroups(p, "ba" + input);
+            }
+        }
+        assertTrue(Pattern.compile("(a+)(b*)c", EngineStyle.TDFA_TABLE)
+            .engine.hasFindLoop());
+        assertFind("(a|ab)(c|bcd)(d*)", "xabcdd", "(1,6)(1,2)(2,5)(5,6)", "");
+        assertFind("(a|ab)(c|bcd)(d*)", Pattern.X_LEFTMOST_LONGEST, "xabcdd", 
+            "(1,6)(1,2)(2,5)(5,6)", "");
+    }
+}
@@ -4,8 +4,22 @@
 
 package org.xtrms.regex.test;
 
+import org.xtrms.regex.AhoCorasickTestCase;
+import org.xtrms.regex.BacktrackTestCase;
+import org.xtrms.regex.BitParallelTestCase;
+import org.xtrms.regex.ByteMatcherTestCase;
 import org.xtrms.regex.CharClassTestCase;
+import org.xtrms.regex.CharRingTestCase;
+import org.xtrms.regex.DFATestCase;
+import org.xtrms.regex.HybridTestCase;
+import org.xtrms.regex.LiteralTestCase;
+import org.xtrms.regex.MappedCharSequenceTestCase;
+import org.xtrms.regex.MatchSpliteratorTestCase;
+import org.xtrms.regex.OnePassTestCase;
+import org.xtrms.regex.ParallelDFATestCase;
 import org.xtrms.regex.RegexParserTestCase;
+import org.xtrms.regex.StreamOffsetsTestCase;
+import org.xtrms.regex.TDFATestCase;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -26,6 +40,24 @@ public class AllShort {
         suite.addTestSuite(AnchorsTestCase.class);
         suite.addTestSuite(CaptureGroupTestCase.class);
         suite.addTestSuite(AttTestCase.class);
+        suite.addTestSuite(DFATestCase.class);
+        suite.addTestSuite(HybridTestCase.class);
+        suite.addTestSuite(TDFATestCase.class);
+        suite.addTestSuite(OnePassTestCase.class);
+        suite.addTestSuite(BitParallelTestCase.class);
+        suite.addTestSuite(BacktrackTestCase.class);
+        suite.addTestSuite(LiteralTestCase.class);
+        suite.addTestSuite(AhoCorasickTestCase.class);
+        suite.addTestSuite(PatternSetTestCase.class);
+        suite.addTestSuite(LexerTestCase.class);
+        suite.addTestSuite(MappedCharSequenceTestCase.class);
+        suite.addTestSuite(ByteMatcherTestCase.class);
+        suite.addTestSuite(ParallelDFATestCase.class);
+        suite.addTestSuite(MatchSpliteratorTestCase.class);
+        suite.addTestSuite(StreamOffsetsTestCase.class);
+        suite.addTestSuite(CharRingTestCase.class);
+        suite.addTestSuite(PushMatcherTestCase.class);
+        suite.addTestSuite(FlowScannerTestCase.class);
         //$JUnit-END$
         return suite;
     }
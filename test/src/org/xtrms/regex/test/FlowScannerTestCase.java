@@ -0,0 +1,124 @@
+/*@LICENSE@
+ */
+
+package org.xtrms.regex.test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.FlowScanner;
+import org.xtrms.regex.Pattern;
+
+public class FlowScannerTestCase extends AbstractRxTestCase {
+
+    public FlowScannerTestCase(String name) {
+        super(name);
+    }
+
+    private static final String[] regexes = {
+        "abc", "(a|b)*abb", "x*", "a[0-9]+b", "[ab]+c?", "a.c", "ab\\b", "a(b)c",
+        "ab\\B", "b\\z", "a1$"
+    };
+
+    private static String randomInput(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * every offset where a match of regex ends, from any start.
+     */
+    private static List<Integer> ends(String regex, String input) {
+        java.util.regex.Matcher m = java.util.regex.Pattern.compile(regex).matcher(input);
+        m.useTransparentBounds(true).useAnchoringBounds(false);
+        List<Integer> result = new ArrayList<Integer>();
+        for (int e = 0; e <= input.length(); ++e) {
+            for (int s = 0; s <= e; ++s) {
+                if (m.region(s, e).matches()) {
+                    result.add(e);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * scans input in chunks of random length, the state all that is kept.
+     */
+    private static List<Integer> scan(FlowScanner fs, String input, Random random) {
+        final List<Integer> result = new ArrayList<Integer>();
+        int state = fs.initial();
+        for (int i = 0; i < input.length(); ) {
+            final int base = i;
+            i = Math.min(input.length(), i + random.nextInt(5));
+            state = fs.scan(state, input.substring(base, i), e -> result.add(base + e));
+        }
+        if (fs.endOfInput(state)) result.add(input.length());
+        return result;
+    }
+
+    public void testEnds() {
+        Random random = new Random(25);
+        for (String regex : regexes) {
+            FlowScanner fs = FlowScanner.compile(regex);
+            for (int n = 0; n < 50; ++n) {
+                String input = randomInput(random, "abcx1 ", random.nextInt(30));
+                assertEquals(regex + " / " + input, ends(regex, input), scan(fs, input, random));
+            }
+        }
+    }
+
+    public void testBytes() {
+        FlowScanner fs = FlowScanner.compile("b\u00e9+");
+        final List<Integer> result = new ArrayList<Integer>();
+        ByteBuffer bytes = ByteBuffer.wrap("ab\u00e9\u00e9c".getBytes(StandardCharsets.ISO_8859_1));
+        int state = fs.scan(fs.initial(), bytes, e -> result.add(e));
+        assertFalse(bytes.hasRemaining());
+        assertEquals(List.of(3, 4), result);
+        assertFalse(fs.endOfInput(state));
+    }
+
+    public void testPattern() {
+        FlowScanner fs = FlowScanner.compile("ab", Pattern.CASE_INSENSITIVE);
+        assertEquals("ab", fs.pattern());
+        assertEquals(Pattern.CASE_INSENSITIVE, fs.flags());
+    }
+
+    public void testStates() {
+        FlowScanner fs = FlowScanner.compile("ab");
+        assertTrue(fs.stateCount() <= FlowScanner.MAX_STATE_COUNT);
+        int state = fs.scan(fs.initial(), "xxa", null);
+        assertTrue(state >= 0 && state < fs.stateCount());
+        assertFalse(fs.isDead(state));
+        assertTrue(fs.endOfInput(fs.scan(state, "b", null)));
+
+        try {
+            fs.scan(fs.stateCount(), "ab", null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRejected() {
+        String[] rejected = {
+            "^ab", "\\bab", "\\Bab", "\\Gab", "\\Aab", "a\\bb", "a.\\b", "ab\\Z"
+        };
+        for (String regex : rejected) {
+            try {
+                FlowScanner.compile(regex);
+                fail(regex);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*@LICENSE@
+ */
+
+package org.xtrms.regex.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.Expression;
+import org.xtrms.regex.Lexer;
+
+public class LexerTestCase extends AbstractRxTestCase {
+
+    public LexerTestCase(String name) {
+        super(name);
+    }
+
+    /*
+     * "ruleId:start,end=text" per token.
+     */
+    private static List<String> lex(Lexer.Tokens tokens) throws IOException {
+        List<String> result = new ArrayList<String>();
+        while (tokens.next()) {
+            result.add(tokens.ruleId() + ":" + tokens.start() + "," 
+                + tokens.end() + "=" + tokens);
+        }
+        return result;
+    }
+
+    public void testLongestThenFirst() throws IOException {
+        Lexer lexer = Lexer.compile(Arrays.asList(
+            "if", "[a-z]+", "\\d+(?:\\.\\d+)?", "\\s+", "==|=", "\\+\\+?"));
+        assertEquals(6, lexer.ruleCount());
+        assertEquals("if", lexer.ruleName(0));
+        String input = "if iffy == 1.5+x ++ 3. ";
+        List<String> expected = Arrays.asList(
+            "0:0,2=if", "3:2,3= ", "1:3,7=iffy", "3:7,8= ", "4:8,10===",
+            "3:10,11= ", "2:11,14=1.5", "5:14,15=+", "1:15,16=x", "3:16,17= ",
+            "5:17,19=++", "3:19,20= ", "2:20,21=3", "-1:21,22=.", "3:22,23= ");
+        assertEquals(expected, lex(lexer.tokens(input)));
+        assertEquals(expected, lex(lexer.tokens(new StringReader(input))));
+        assertFalse(lexer.tokens("").next());
+    }
+
+    public void testExpressions() throws IOException {
+        List<Expression> defs = new ArrayList<Expression>();
+        Expression.parseAndAdd(defs, "digit", "[0-9]");
+        Expression.parseAndAdd(defs, "num", "<digit>+");
+        Expression.parseAndAdd(defs, "id", "[a-z]<digit>*");
+        Expression.parseAndAdd(defs, "ws", " +");
+        Lexer lexer = Lexer.compile(defs.get(1), defs.get(2), defs.get(3));
+        assertEquals("id", lexer.ruleName(1));
+        assertEquals(Arrays.asList("0:0,2=42", "2:2,4=  ", "1:4,6=x1", 
+            "1:6,7=y", "-1:7,8=Z"), lex(lexer.tokens("42  x1yZ")));
+    }
+
+    /*
+     * tokens across buffer refills, with the offsets still absolute.
+     */
+    public void testLongInput() throws IOException {
+        Lexer lexer = Lexer.compile(Arrays.asList("a+", "b"));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; ++i) sb.append("aab");
+        sb.append(new char[10000]).insert(0, 'b');
+        Lexer.Tokens tokens = lexer.tokens(new StringReader(sb.toString()));
+        assertTrue(tokens.next());
+        assertEquals(1, tokens.ruleId());
+        for (int i = 0; i < 3000; ++i) {
+            assertTrue(tokens.next());
+            assertEquals(0, tokens.ruleId());
+            assertEquals(1 + 3 * i, tokens.start());
+            assertEquals("aa", tokens.toString());
+            assertTrue(tokens.next());
+            assertEquals(1, tokens.ruleId());
+        }
+        int n = 0;
+        while (tokens.next()) {
+            assertEquals(-1, tokens.ruleId());
+            ++n;
+        }
+        assertEquals(10000, n);
+        assertEquals(sb.length(), tokens.end());
+    }
+
+    public void testBoundariesRejected() {
+        try {
+            Lexer.compile(Arrays.asList("\\bx"));
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
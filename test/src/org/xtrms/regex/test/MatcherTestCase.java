@@ -5,8 +5,11 @@ package org.xtrms.regex.test;
 
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.regex.MatchResult;
 
 import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.EngineStyle;
+import org.xtrms.regex.MatchVisitor;
 import org.xtrms.regex.Matcher;
 import org.xtrms.regex.Pattern;
 import org.xtrms.regex.Expression;
@@ -172,6 +175,79 @@ public class MatcherTestCase extends AbstractRxTestCase {
     }
     
 
+    public void testForEachMatch() {
+        Pattern p = Pattern.compile("(a)(b)?");
+        Matcher m = p.matcher("xabaxab");
+        final StringBuilder sb = new StringBuilder();
+        int n = m.forEachMatch(new MatchVisitor() {
+            public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+                sb.append(csq.subSequence(start, end)).append('(');
+                for (int g : groups) sb.append(g).append(',');
+                sb.append(')');
+                return true;
+            }
+        });
+        assertEquals(3, n);
+        assertEquals("ab(1,3,1,2,2,3,)a(3,4,3,4,-1,-1,)ab(5,7,5,6,6,7,)", sb.toString());
+        assertFalse(m.find());
+        m.reset();
+        n = m.forEachMatch(new MatchVisitor() {
+            public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+                return false;
+            }
+        });
+        assertEquals(1, n);
+        assertTrue(m.find());
+        assertMatch(m, "(3,4)(3,4)(-1,-1)");
+    }
+    
+    public void testGroupView() {
+        Matcher m = Pattern.compile("(a)(b)?").matcher("xabaxab");
+        assertTrue(m.find());
+        CharSequence view = m.groupView(0);
+        assertEquals("ab", view.toString());
+        assertEquals('b', m.groupView(2).charAt(0));
+        assertTrue(m.find());
+        assertSame(view, m.groupView(0));
+        assertEquals("a", view.toString());
+        assertEquals(1, view.length());
+        assertNull(m.groupView(2));
+        try {
+            view.charAt(1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        assertEquals("a", view.subSequence(0, 1).toString());
+        for (int[] se : new int[][] {{0, 2}, {-1, 1}, {1, 0}}) {
+            try {
+                view.subSequence(se[0], se[1]);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+            }
+        }
+    }
+    
+    public void testMatchResultReuse() {
+        Matcher m = Pattern.compile("(a)(b)?").matcher("xabaxab");
+        assertTrue(m.find());
+        MatchResult r = m.toMatchResult(null);
+        assertEquals("ab", r.group());
+        assertTrue(m.find());
+        assertSame(r, m.toMatchResult(r));
+        assertEquals(3, r.start());
+        assertEquals("a", r.group(1));
+        assertNull(r.group(2));
+        assertEquals(-1, r.start(2));
+        assertEquals(2, r.groupCount());
+        assertTrue(m.find());
+        assertFalse(m.find());
+        try {
+            m.toMatchResult(r);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+    
     public void testCapturingAppendReplace() {
         Pattern p = Pattern.compile("a((b)*)z");
         Matcher m = p.matcher("abbbz");
@@ -245,6 +321,20 @@ public class MatcherTestCase extends AbstractRxTestCase {
         assertFind("(fo)|foo", "foo", "(0,2)(0,2)", "");
     }
 
+    public void testLeftmostFirstDFA() {
+        assertFind("fo|foo", "foo", "(0,2)", "");
+        assertFind("foo|fo", "foo", "(0,3)", "");
+        assertFind("a+?", "aaa", "(0,1)", "(1,2)", "(2,3)", "");
+        assertFind("a*?b", "aab", "(0,3)", "");
+        assertFind("(?:a|ab)(?:c|bcd)", "abcd", "(0,4)", "");
+        assertFind("x*?|y", "y", "(0,0)", "(1,1)", "");
+        assertFind("fo|foo", Pattern.X_LEFTMOST_LONGEST, "foo", "(0,3)", "");
+        assertEquals(EngineStyle.DFA_TABLE,
+            Pattern.compile("fo|fo+").style());
+        assertEquals(EngineStyle.DFA_TABLE,
+            Pattern.compile("a+?b").style());
+    }
+
     public void testNamedCapturingGroups() {
         
         CharSequence input = "fooXXXbarYYYclem";
@@ -0,0 +1,86 @@
+/*@LICENSE@
+ */
+
+package org.xtrms.regex.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.Expression;
+import org.xtrms.regex.Pattern;
+import org.xtrms.regex.PatternSet;
+
+public class PatternSetTestCase extends AbstractRxTestCase {
+
+    public PatternSetTestCase(String name) {
+        super(name);
+    }
+
+    private static BitSet bits(int... ids) {
+        BitSet bs = new BitSet();
+        for (int id : ids) bs.set(id);
+        return bs;
+    }
+
+    /*
+     * each Pattern on its own is the oracle.
+     */
+    private static void assertSameAsEach(PatternSet ps, String input) 
+            throws IOException {
+        BitSet expected = new BitSet();
+        for (int id = 0; id < ps.size(); ++id) {
+            if (ps.pattern(id).matcher(input).find()) expected.set(id);
+        }
+        assertEquals(input, expected, ps.matches(input));
+        assertEquals(input, expected, ps.matches(new StringReader(input)));
+    }
+
+    public void testMatches() throws IOException {
+        List<String> regexes = Arrays.asList(
+            "timeout", "\\d+\\.\\d+", "ERROR|WARN", "x*", "(a+)b", "q{3}");
+        PatternSet ps = PatternSet.compile(regexes);
+        assertEquals(6, ps.size());
+        assertEquals(bits(0, 1, 3), ps.matches("request 1.5 timeout"));
+        assertEquals(bits(2, 3, 4), ps.matches("WARN aab"));
+        assertEquals(bits(3), ps.matches(""));
+        for (String input : new String[] {
+                "ERROR 12.5 timeout aab qqq", "time out", "qq q", "ab 1. 2"}) {
+            assertSameAsEach(ps, input);
+        }
+    }
+
+    /*
+     * too many states: the union is simulated, rather than determinized.
+     */
+    public void testSimulated() throws IOException {
+        List<String> regexes = Arrays.asList("ab+c", "b(?:a|c)", "\\bx");
+        assertTrue(PatternSet.compile(regexes).toString().contains("DFA states"));
+        regexes = Arrays.asList("ab+c", "(?:a|b)*a(?:a|b){14}", "\\bx");
+        PatternSet ps = PatternSet.compile(regexes);
+        assertFalse(ps.toString().contains("DFA states"));
+        Random random = new Random(56L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300; ++i) sb.append("abcx ".charAt(random.nextInt(5)));
+        String input = sb.toString();
+        for (int n = 0; n < input.length(); n += 37) {
+            assertSameAsEach(ps, input.substring(n));
+        }
+    }
+
+    public void testBoundariesAndExpressions() throws IOException {
+        Expression ip = Expression.parse("ip", "\\d+\\.\\d+\\.\\d+\\.\\d+");
+        List<String> regexes = Arrays.asList(
+            "^GET", "\\bcat\\b", "from <ip>", "done$", "(?:foo|bar)+");
+        PatternSet ps = PatternSet.compile(regexes, Pattern.CASE_INSENSITIVE, ip);
+        assertEquals(bits(0, 2, 3), ps.matches("get / from 10.0.0.1 DONE"));
+        for (String input : new String[] {
+                "a GET concat", "the cat from 1.2.3.4", "foobar done.", "done"}) {
+            assertSameAsEach(ps, input);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*@LICENSE@
+ */
+
+package org.xtrms.regex.test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.EngineStyle;
+import org.xtrms.regex.MatchVisitor;
+import org.xtrms.regex.Matcher;
+import org.xtrms.regex.Pattern;
+import org.xtrms.regex.PushMatcher;
+
+public class PushMatcherTestCase extends AbstractRxTestCase {
+
+    public PushMatcherTestCase(String name) {
+        super(name);
+    }
+
+    private static final String[] regexes = {
+        "(a|b)*abb", "x*", "[ab]+c?", "\\bab\\b", "(?:ab|b)c", "a(b)c", "b\u00e9*\u20ac"
+    };
+
+    private static String randomInput(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; ++i) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * "start,end=text" per match.
+     */
+    private static List<String> finds(Pattern p, String input) {
+        List<String> result = new ArrayList<String>();
+        Matcher m = p.matcher(input);
+        while (m.find()) result.add(m.start() + "," + m.end() + "=" + m.group());
+        return result;
+    }
+
+    private static final class Collector implements MatchVisitor {
+        final List<String> matches = new ArrayList<String>();
+        PushMatcher pm;
+        public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+            assertEquals(pm.endOffset() - pm.startOffset(), end - start);
+            matches.add(pm.startOffset() + "," + pm.endOffset() + "=" 
+                + csq.subSequence(start, end));
+            return true;
+        }
+    }
+
+    public void testChunks() throws CharacterCodingException {
+        Random random = new Random(24L);
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex);
+            for (int n = 0; n < 20; ++n) {
+                String input = randomInput(random, "abcx \u00e9\u20ac", 200);
+                Collector c = new Collector();
+                c.pm = new PushMatcher(p, c);
+                for (int j = 0; j < input.length(); ) {
+                    int k = Math.min(input.length(), j + random.nextInt(8));
+                    c.pm.feed(CharBuffer.wrap(input, j, k));
+                    j = k;
+                }
+                c.pm.endOfInput();
+                assertEquals(regex, finds(p, input), c.matches);
+            }
+        }
+    }
+
+    public void testBytes() throws Exception {
+        Random random = new Random(25L);
+        for (String regex : regexes) {
+            Pattern p = Pattern.compile(regex);
+            String input = randomInput(random, "abcx \u00e9\u20ac", 300);
+            byte[] bytes = input.getBytes("UTF-8");
+            Collector c = new Collector();
+            c.pm = new PushMatcher(p, "UTF-8", c);
+            for (int j = 0; j < bytes.length; ) {
+                int k = Math.min(bytes.length, j + random.nextInt(5));
+                c.pm.feed(ByteBuffer.wrap(bytes, j, k - j));
+                j = k;
+            }
+            c.pm.endOfInput();
+            assertEquals(regex, finds(p, input), c.matches);
+        }
+        PushMatcher pm = new PushMatcher(Pattern.compile("a", EngineStyle.DFA_TABLE), 
+            "UTF-8", new Collector());
+        pm.feed(ByteBuffer.wrap(new byte[] {'a', (byte) 0xC3}));
+        try {
+            pm.endOfInput();
+            fail();
+        } catch (CharacterCodingException e) {
+        }
+    }
+
+    public void testStop() throws CharacterCodingException {
+        final List<String> matches = new ArrayList<String>();
+        PushMatcher pm = new PushMatcher(Pattern.compile("a+"), new MatchVisitor() {
+            public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+                matches.add(csq.subSequence(start, end).toString());
+                return matches.size() < 2;
+            }
+        });
+        pm.feed(CharBuffer.wrap("xaxaa"));
+        pm.feed(CharBuffer.wrap("xaaa"));
+        pm.endOfInput();
+        assertEquals("[a, aa]", matches.toString());
+        try {
+            pm.feed(CharBuffer.wrap("a"));
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            new PushMatcher(Pattern.compile("a.\\b"), new Collector());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /*
+     * a table DFA is built where the Pattern's own Engine is another.
+     */
+    public void testOtherEngines() throws CharacterCodingException {
+        Random random = new Random(26L);
+        Pattern[] patterns = {
+            Pattern.compile("foo|bar"),
+            Pattern.compile("(a|ab)(c|bcd)", EngineStyle.BACKTRACK),
+            Pattern.compile("(?:ab|b)c", EngineStyle.NFA_TABLE),
+        };
+        assertEquals(EngineStyle.AHO_CORASICK, patterns[0].style());
+        for (Pattern p : patterns) {
+            for (int n = 0; n < 10; ++n) {
+                String input = randomInput(random, "abcdfor ", 200);
+                Collector c = new Collector();
+                c.pm = new PushMatcher(p, c);
+                for (int j = 0; j < input.length(); ) {
+                    int k = Math.min(input.length(), j + random.nextInt(8));
+                    c.pm.feed(CharBuffer.wrap(input, j, k));
+                    j = k;
+                }
+                c.pm.endOfInput();
+                assertEquals(p.pattern(), finds(p, input), c.matches);
+            }
+        }
+    }
+
+    public void testProcessor() throws Exception {
+        Flow.Processor<CharBuffer, String> processor = 
+            PushMatcher.processor(Pattern.compile("f[a-z]+"));
+        final List<String> matches = new ArrayList<String>();
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        processor.subscribe(new Flow.Subscriber<String>() {
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+            public void onNext(String item) {
+                matches.add(item);
+            }
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        SubmissionPublisher<CharBuffer> publisher = new SubmissionPublisher<CharBuffer>();
+        publisher.subscribe(processor);
+        for (String chunk : new String[] {"one fi", "sh two f", "ysh", " red fish"}) {
+            publisher.submit(CharBuffer.wrap(chunk));
+        }
+        publisher.close();
+        done.get(10, TimeUnit.SECONDS);
+        assertEquals("[fish, fysh, fish]", matches.toString());
+    }
+}
@@ -9,6 +9,7 @@ import java.io.StringWriter;
 import java.io.Writer;
 
 import org.xtrms.regex.AbstractRxTestCase;
+import org.xtrms.regex.MatchVisitor;
 import org.xtrms.regex.Pattern;
 import org.xtrms.regex.StreamMatcher;
 
@@ -58,4 +59,26 @@ public class StreamMatcherTestCase extends AbstractRxTestCase {
         sm.replaceAll("ph$1");
         assertEquals("one phish two physh baby!", w.toString());
     }
+
+    public void testForEachMatch() {
+        Reader r = new StringReader("one fish two fysh red fish blue fische");
+        StreamMatcher sm = new StreamMatcher(r, Pattern.compile("f([a-z]+)"));
+        final StringBuilder sb = new StringBuilder();
+        int n = sm.forEachMatch(new MatchVisitor() {
+            public boolean visit(CharSequence csq, int start, int end, int[] groups) {
+                sb.append(csq.subSequence(groups[2], groups[3])).append(' ');
+                return true;
+            }
+        });
+        assertEquals(4, n);
+        assertEquals("ish ysh ish ische ", sb.toString());
+    }
+    
+    public void testFinder() {
+        Reader r = new StringReader("one fish two fysh");
+        StreamMatcher sm = new StreamMatcher(r, Pattern.compile("f[a-z]+"));
+        StringBuilder sb = new StringBuilder();
+        for (String s : sm.finder()) sb.append(s).append(' ');
+        assertEquals("fish fysh ", sb.toString());
+    }
 }